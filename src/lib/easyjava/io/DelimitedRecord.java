@@ -0,0 +1,306 @@
+package lib.easyjava.io;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * One line of a delimited file, split into fields. The line's chars are
+ * copied into a buffer owned by the record and fields are only start and end
+ * indexes into it, so splitting a line allocates nothing. Records are reused
+ * from one line to the next.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class DelimitedRecord {
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        // Every power of ten up to 10^22 is exact as a double
+        double power = 1;
+        for(int i = 0; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = power;
+            power *= 10;
+        }
+    }
+
+    private char[] chars;
+    private int count;
+    private final char delimiter;
+    private int[] ends;
+    private long lineNumber;
+    private final boolean quoted;
+    private int[] starts;
+
+    /**
+     * @param delimiter
+     *            the char between fields
+     * @param quoted
+     *            whether fields can be wrapped in double quotes
+     */
+    DelimitedRecord(char delimiter, boolean quoted) {
+        this.delimiter = delimiter;
+        this.quoted = quoted;
+        chars = new char[256];
+        starts = new int[16];
+        ends = new int[16];
+    }
+
+    private void addField(int start, int end) {
+        if(count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+        }
+
+        starts[count] = start;
+        ends[count] = end;
+        count++;
+    }
+
+    private void checkIndex(int field) {
+        if(field < 0 || field >= count) {
+            throw new IndexOutOfBoundsException("Field " + field + " of "
+                    + count + " on line " + lineNumber);
+        }
+    }
+
+    /**
+     * Parses a field as a double. Plain decimals are parsed straight from the
+     * buffer; anything else (exponents, very long mantissas, NaN) goes through
+     * Double.parseDouble.
+     * 
+     * @param field
+     *            the index of the field, starting at 0
+     * @return the value of the field
+     */
+    public double getDouble(int field) {
+        checkIndex(field);
+        final int end = ends[field];
+        int i = starts[field];
+        boolean negative = false;
+        if(i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int scale = -1;
+        for(; i < end; i++) {
+            final char c = chars[i];
+            if(c >= '0' && c <= '9') {
+                if(++digits > 18) {
+                    break;
+                }
+                mantissa = mantissa * 10 + c - '0';
+                if(scale >= 0) {
+                    scale++;
+                }
+            }
+            else if(c == '.' && scale < 0) {
+                scale = 0;
+            }
+            else {
+                break;
+            }
+        }
+
+        // A mantissa below 2^53 and a power of ten up to 10^22 are both exact,
+        // so a single division rounds correctly
+        if(i < end || digits == 0 || digits > 18 || mantissa >= 1L << 53
+                || scale > 22) {
+            return Double.parseDouble(getString(field));
+        }
+
+        final double value = scale > 0 ? mantissa / POWERS_OF_TEN[scale]
+                : mantissa;
+        return negative ? -value : value;
+    }
+
+    /**
+     * Gets a view of a field. The view is only good until the record moves on
+     * to the next line.
+     * 
+     * @param field
+     *            the index of the field, starting at 0
+     * @return the field
+     */
+    public CharSequence getField(int field) {
+        checkIndex(field);
+        return CharBuffer.wrap(chars, starts[field], ends[field]
+                - starts[field]);
+    }
+
+    /**
+     * Gets the number of fields in the record
+     * 
+     * @return the number of fields
+     */
+    public int getFieldCount() {
+        return count;
+    }
+
+    /**
+     * Parses a field as an int, straight from the buffer
+     * 
+     * @param field
+     *            the index of the field, starting at 0
+     * @return the value of the field
+     */
+    public int getInt(int field) {
+        final long value = getLong(field);
+        if(value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw invalidNumber(field);
+        }
+
+        return (int) value;
+    }
+
+    /**
+     * Gets the number of the line the record was read from
+     * 
+     * @return the line number, starting at 1
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Parses a field as a long, straight from the buffer
+     * 
+     * @param field
+     *            the index of the field, starting at 0
+     * @return the value of the field
+     */
+    public long getLong(int field) {
+        checkIndex(field);
+        final int end = ends[field];
+        int i = starts[field];
+        boolean negative = false;
+        if(i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i++;
+        }
+        if(i == end) {
+            throw invalidNumber(field);
+        }
+
+        // Accumulate negatively, since Long.MIN_VALUE has no positive
+        // counterpart
+        long value = 0;
+        for(; i < end; i++) {
+            final int digit = chars[i] - '0';
+            if(digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10) {
+                throw invalidNumber(field);
+            }
+            value *= 10;
+            if(value < Long.MIN_VALUE + digit) {
+                throw invalidNumber(field);
+            }
+            value -= digit;
+        }
+
+        if(negative) {
+            return value;
+        }
+        if(value == Long.MIN_VALUE) {
+            throw invalidNumber(field);
+        }
+        return -value;
+    }
+
+    /**
+     * Copies a field into a new String
+     * 
+     * @param field
+     *            the index of the field, starting at 0
+     * @return the field
+     */
+    public String getString(int field) {
+        checkIndex(field);
+        return new String(chars, starts[field], ends[field] - starts[field]);
+    }
+
+    private NumberFormatException invalidNumber(int field) {
+        return new NumberFormatException("For field " + field + " on line "
+                + lineNumber + ": \"" + getString(field) + "\"");
+    }
+
+    /**
+     * Splits a line into this record's fields, replacing the previous ones
+     * 
+     * @param line
+     *            the line
+     * @param lineNumber
+     *            the number of the line
+     */
+    void set(CharSequence line, long lineNumber) {
+        this.lineNumber = lineNumber;
+        count = 0;
+        final int length = line.length();
+        if(chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+
+        if(!quoted) {
+            int start = 0;
+            for(int i = 0; i < length; i++) {
+                final char c = line.charAt(i);
+                chars[i] = c;
+                if(c == delimiter) {
+                    addField(start, i);
+                    start = i + 1;
+                }
+            }
+            addField(start, length);
+            return;
+        }
+
+        // Unquoting only ever shrinks a field, so it can be done in place
+        int i = 0;
+        int out = 0;
+        while(true) {
+            final int start = out;
+            if(i < length && line.charAt(i) == '"') {
+                i++;
+                while(i < length) {
+                    final char c = line.charAt(i++);
+                    if(c != '"') {
+                        chars[out++] = c;
+                    }
+                    else if(i < length && line.charAt(i) == '"') {
+                        chars[out++] = '"';
+                        i++;
+                    }
+                    else {
+                        break;
+                    }
+                }
+            }
+
+            // Anything between a closing quote and the delimiter is kept
+            char c;
+            while(i < length && (c = line.charAt(i)) != delimiter) {
+                chars[out++] = c;
+                i++;
+            }
+            addField(start, out);
+
+            if(i == length) {
+                return;
+            }
+            i++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("DelimitedRecord(");
+        builder.append(lineNumber).append(":");
+        for(int i = 0; i < count; i++) {
+            builder.append(i == 0 ? " " : ", ");
+            builder.append(chars, starts[i], ends[i] - starts[i]);
+        }
+
+        return builder.append(")").toString();
+    }
+}
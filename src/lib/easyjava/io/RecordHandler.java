@@ -0,0 +1,20 @@
+package lib.easyjava.io;
+
+import java.io.IOException;
+
+/**
+ * Handles the records of a delimited file as they're read
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public interface RecordHandler {
+    /**
+     * Handles one record. The record is reused for the next one, so copy
+     * anything you want to keep out of it.
+     * 
+     * @param record
+     *            the record
+     * @throws IOException
+     */
+    public void handle(DelimitedRecord record) throws IOException;
+}
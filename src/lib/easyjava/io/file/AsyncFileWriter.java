@@ -0,0 +1,370 @@
+package lib.easyjava.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A FileWriter that hands text to a background thread instead of writing it
+ * itself, so writes return without waiting on the disk. The background
+ * thread drains the queue in batches, gathers each batch into one write and
+ * flushes once per batch.
+ * 
+ * Call close when you're done with it: that's the only way to be sure that
+ * everything queued has reached the file.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class AsyncFileWriter extends FileWriter {
+    /**
+     * What a write does when the queue is full
+     */
+    public enum Backpressure {
+        /**
+         * Wait for the background thread to make room
+         */
+        BLOCK,
+        /**
+         * Throw the text away and count it as dropped
+         */
+        DROP,
+        /**
+         * Let the queue grow without limit
+         */
+        GROW
+    }
+
+    private class Drainer implements Runnable {
+        private final StringBuilder gathered;
+
+        private Drainer() {
+            gathered = new StringBuilder();
+        }
+
+        @Override
+        public void run() {
+            final List<String> batch = new ArrayList<String>(MAX_BATCH);
+            boolean done = false;
+
+            while(!done) {
+                try {
+                    batch.add(queue.take());
+                }
+                catch(final InterruptedException e) {
+                    continue;
+                }
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                for(final String text : batch) {
+                    if(text == END) {
+                        done = true;
+                    }
+                    else if(text == REOPEN) {
+                        write();
+                        if(error == null) {
+                            try {
+                                AsyncFileWriter.super.reopen();
+                            }
+                            catch(final IOException e) {
+                                error = e;
+                            }
+                        }
+                    }
+                    else {
+                        gathered.append(text);
+                    }
+                }
+                write();
+
+                if(error == null) {
+                    try {
+                        AsyncFileWriter.super.flush();
+                    }
+                    catch(final IOException e) {
+                        error = e;
+                    }
+                }
+
+                complete(batch.size());
+                batch.clear();
+            }
+        }
+
+        private void write() {
+            if(error == null && gathered.length() > 0) {
+                try {
+                    AsyncFileWriter.super.write(gathered.toString());
+                }
+                catch(final IOException e) {
+                    error = e;
+                }
+            }
+            gathered.setLength(0);
+        }
+    }
+
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final String END = new String();
+    private static final int MAX_BATCH = 1024;
+    private static final String REOPEN = new String();
+
+    private final Backpressure backpressure;
+    private volatile boolean closed;
+    // Held for reading while a write is queued and for writing while END is,
+    // so no write can land in the queue behind END
+    private final ReadWriteLock closeLock;
+    private long completed;
+    private final AtomicLong dropped;
+    private final AtomicLong enqueued;
+    private volatile IOException error;
+    private final Object lock;
+    private final BlockingQueue<String> queue;
+    private final Thread thread;
+
+    /**
+     * Blocks writes once 8192 of them are waiting to be written
+     * 
+     * @param file
+     *            the file to write to
+     * @throws IOException
+     */
+    public AsyncFileWriter(File file) throws IOException {
+        this(file, DEFAULT_CAPACITY, Backpressure.BLOCK);
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param capacity
+     *            the number of writes that can wait to be written before the
+     *            backpressure policy kicks in
+     * @param backpressure
+     *            what a write does when the queue is full
+     * @throws IOException
+     */
+    public AsyncFileWriter(File file, int capacity, Backpressure backpressure)
+            throws IOException {
+        super(file, FlushPolicy.ON_CLOSE);
+        this.backpressure = backpressure;
+        if(backpressure == Backpressure.GROW) {
+            queue = new LinkedBlockingQueue<String>();
+        }
+        else {
+            queue = new LinkedBlockingQueue<String>(capacity);
+        }
+        dropped = new AtomicLong();
+        enqueued = new AtomicLong();
+        lock = new Object();
+        closeLock = new ReentrantReadWriteLock();
+
+        thread = new Thread(new Drainer(), "AsyncFileWriter(" + file.getName()
+                + ")");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Blocks writes once 8192 of them are waiting to be written
+     * 
+     * @param filePath
+     *            the path of the file to write to
+     * @throws IOException
+     */
+    public AsyncFileWriter(String filePath) throws IOException {
+        this(new File(filePath));
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param capacity
+     *            the number of writes that can wait to be written before the
+     *            backpressure policy kicks in
+     * @param backpressure
+     *            what a write does when the queue is full
+     * @throws IOException
+     */
+    public AsyncFileWriter(String filePath, int capacity,
+            Backpressure backpressure) throws IOException {
+        this(new File(filePath), capacity, backpressure);
+    }
+
+    @Override
+    public FileWriter append(char c) throws IOException {
+        enqueue(String.valueOf(c));
+        return this;
+    }
+
+    @Override
+    public FileWriter append(CharSequence text, int start, int end)
+            throws IOException {
+        if(text == null) {
+            return append("null", start, end);
+        }
+
+        enqueue(text.subSequence(start, end).toString());
+        return this;
+    }
+
+    /**
+     * Waits for everything queued to be written, then closes the writer
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        boolean interrupted = false;
+        closeLock.writeLock().lock();
+        try {
+            if(closed) {
+                return;
+            }
+            closed = true;
+
+            while(true) {
+                try {
+                    queue.put(END);
+                    break;
+                }
+                catch(final InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        finally {
+            closeLock.writeLock().unlock();
+        }
+
+        while(thread.isAlive()) {
+            try {
+                thread.join();
+            }
+            catch(final InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        super.close();
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    private void complete(int count) {
+        synchronized(lock) {
+            completed += count;
+            lock.notifyAll();
+        }
+    }
+
+    private void enqueue(String text) throws IOException {
+        if(error != null) {
+            throw error;
+        }
+
+        closeLock.readLock().lock();
+        try {
+            if(closed) {
+                throw new IOException("Writer is closed");
+            }
+
+            // Counted before it's queued so a flush can't miss it. A write
+            // that never makes it into the queue is done with straight away.
+            enqueued.incrementAndGet();
+            if(backpressure == Backpressure.DROP && text != REOPEN) {
+                if(!queue.offer(text)) {
+                    dropped.incrementAndGet();
+                    complete(1);
+                }
+            }
+            else {
+                try {
+                    queue.put(text);
+                }
+                catch(final InterruptedException e) {
+                    complete(1);
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+        finally {
+            closeLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until everything queued so far has been written and flushed
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        final long target = enqueued.get();
+        synchronized(lock) {
+            while(completed < target && error == null && thread.isAlive()) {
+                try {
+                    lock.wait();
+                }
+                catch(final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        if(error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Gets the number of writes thrown away because the queue was full
+     * 
+     * @return the number of dropped writes
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the number of writes waiting to be written
+     * 
+     * @return the depth of the queue
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Closes and reopens the file once the background thread has written
+     * everything queued before this call, and waits for it to happen
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void reopen() throws IOException {
+        enqueue(REOPEN);
+        flush();
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        enqueue(new String(chars, offset, length));
+    }
+
+    @Override
+    public void write(String text) throws IOException {
+        enqueue(text);
+    }
+}
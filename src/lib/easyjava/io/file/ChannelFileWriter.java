@@ -0,0 +1,269 @@
+package lib.easyjava.io.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes pre-encoded bytes straight into a file through a FileChannel, with
+ * no Writer or char buffer in between. In mapped mode the bytes are copied
+ * into a memory-mapped region of the file that grows as it fills, and the
+ * file is trimmed to what was actually written when it's closed. Java can't
+ * unmap a region on demand, so the trim happens while the last region is
+ * still mapped. Linux and macOS allow that but Windows doesn't, so mapped mode
+ * can't be used on Windows.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class ChannelFileWriter implements Closeable {
+    private static final long REGION_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final File file;
+    private final boolean mapped;
+    private long position;
+    private MappedByteBuffer region;
+    private long regionStart;
+
+    /**
+     * @param file
+     *            the file to write to
+     * @throws IOException
+     */
+    public ChannelFileWriter(File file) throws IOException {
+        this(file, false);
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param mapped
+     *            whether to write through a memory-mapped region, which isn't
+     *            supported on Windows
+     * @throws IOException
+     */
+    public ChannelFileWriter(File file, boolean mapped) throws IOException {
+        this.file = file;
+        this.mapped = mapped;
+
+        if(mapped) {
+            // Mapping for writing needs read access as well
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+        else {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @throws IOException
+     */
+    public ChannelFileWriter(String filePath) throws IOException {
+        this(new File(filePath));
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param mapped
+     *            whether to write through a memory-mapped region, which isn't
+     *            supported on Windows
+     * @throws IOException
+     */
+    public ChannelFileWriter(String filePath, boolean mapped)
+            throws IOException {
+        this(new File(filePath), mapped);
+    }
+
+    /**
+     * Closes the writer. Call this when you're done with it.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if(mapped) {
+            if(region != null) {
+                region.force();
+                region = null;
+            }
+            channel.truncate(position);
+        }
+        channel.close();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof ChannelFileWriter)) {
+            return false;
+        }
+        final ChannelFileWriter other = (ChannelFileWriter) obj;
+        if(file == null) {
+            if(other.file != null) {
+                return false;
+            }
+        }
+        else if(!file.equals(other.file)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forces everything written so far onto the storage device
+     * 
+     * @param metadata
+     *            whether to force the file's metadata too
+     * @throws IOException
+     */
+    public void force(boolean metadata) throws IOException {
+        if(region != null) {
+            region.force();
+        }
+        channel.force(metadata);
+    }
+
+    /**
+     * Gets the number of bytes written so far
+     * 
+     * @return the position in the file
+     */
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (file == null ? 0 : file.hashCode());
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelFileWriter(" + file.getAbsolutePath() + ")";
+    }
+
+    /**
+     * Copies the whole of another file onto the end of this one. Outside of
+     * mapped mode the copy is done by the operating system. A source that
+     * shrinks while it's being copied is copied as far as it goes.
+     * 
+     * @param source
+     *            the file to copy
+     * @throws IOException
+     */
+    public void transferFrom(File source) throws IOException {
+        final FileChannel in = FileChannel.open(source.toPath(),
+                StandardOpenOption.READ);
+        try {
+            final long size = in.size();
+            if(mapped) {
+                for(long done = 0; done < size;) {
+                    // Reading a mapping past the end of the file crashes
+                    final long chunk = Math.min(Math.min(size, in.size())
+                            - done, REGION_SIZE);
+                    if(chunk <= 0) {
+                        break;
+                    }
+                    write(in.map(FileChannel.MapMode.READ_ONLY, done, chunk));
+                    done += chunk;
+                }
+            }
+            else {
+                long done = 0;
+                while(done < size) {
+                    final long count = channel.transferFrom(in, position
+                            + done, size - done);
+                    if(count == 0) {
+                        // The source has shrunk
+                        break;
+                    }
+                    done += count;
+                }
+                position += done;
+                channel.position(position);
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes all of the remaining bytes in the buffer into the file
+     * 
+     * @param bytes
+     *            the bytes to write
+     * @throws IOException
+     */
+    public void write(ByteBuffer bytes) throws IOException {
+        if(!mapped) {
+            while(bytes.hasRemaining()) {
+                position += channel.write(bytes);
+            }
+            return;
+        }
+
+        while(bytes.hasRemaining()) {
+            if(region == null || !region.hasRemaining()) {
+                if(region != null) {
+                    regionStart += region.capacity();
+                }
+                region = channel.map(FileChannel.MapMode.READ_WRITE,
+                        regionStart, REGION_SIZE);
+            }
+
+            final int count = Math.min(bytes.remaining(), region.remaining());
+            final ByteBuffer part = bytes.duplicate();
+            part.limit(part.position() + count);
+            region.put(part);
+            bytes.position(bytes.position() + count);
+            position += count;
+        }
+    }
+
+    /**
+     * Writes all of the remaining bytes in the buffers into the file, in
+     * order, with as few system calls as possible
+     * 
+     * @param buffers
+     *            the bytes to write
+     * @throws IOException
+     */
+    public void write(ByteBuffer[] buffers) throws IOException {
+        if(mapped) {
+            for(final ByteBuffer bytes : buffers) {
+                write(bytes);
+            }
+            return;
+        }
+
+        long remaining = 0;
+        for(final ByteBuffer bytes : buffers) {
+            remaining += bytes.remaining();
+        }
+        while(remaining > 0) {
+            final long written = channel.write(buffers);
+            position += written;
+            remaining -= written;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package lib.easyjava.io.file;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses gzip or zlib-wrapped deflate data with a pooled Inflater and
+ * input buffer, which go back to the pool when the stream is closed
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class CompressedInputStream extends InputStream {
+    private static final int FCOMMENT = 16;
+    private static final int FEXTRA = 4;
+    private static final int FHCRC = 2;
+    private static final int FNAME = 8;
+    private static final int GZIP_MAGIC = 0x8b1f;
+
+    private byte[] buffer;
+    private final CRC32 crc;
+    private boolean finished;
+    private final boolean gzip;
+    private boolean header;
+    private final InputStream in;
+    private Inflater inflater;
+    private int length;
+    private int position;
+    private final byte[] single;
+
+    /**
+     * @param in
+     *            the compressed stream
+     * @param gzip
+     *            whether the data is gzip rather than zlib-wrapped deflate
+     * @param bufferSize
+     *            the size in bytes of the compressed data buffer
+     */
+    CompressedInputStream(InputStream in, boolean gzip, int bufferSize) {
+        this.in = in;
+        this.gzip = gzip;
+        crc = gzip ? new CRC32() : null;
+        single = new byte[1];
+        buffer = CompressionPool.buffer(bufferSize);
+        inflater = CompressionPool.inflater(gzip);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return finished || inflater == null ? 0 : 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(inflater != null) {
+            CompressionPool.release(inflater, gzip);
+            CompressionPool.release(buffer);
+            inflater = null;
+            buffer = null;
+        }
+        in.close();
+    }
+
+    private boolean fill() throws IOException {
+        position = 0;
+        length = in.read(buffer, 0, buffer.length);
+        if(length <= 0) {
+            length = 0;
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean nextMember(boolean first) throws IOException {
+        if(position == length && !fill()) {
+            return false;
+        }
+        if(first) {
+            readHeader();
+            return true;
+        }
+
+        // Like GZIPInputStream, anything after a complete member that isn't
+        // another member, such as zero padding, is taken as the end
+        try {
+            readHeader();
+        }
+        catch(final EOFException e) {
+            return false;
+        }
+        catch(final ZipException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return read(single, 0, 1) == 1 ? single[0] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(inflater == null) {
+            throw new IOException("Stream closed");
+        }
+        if(len == 0) {
+            return 0;
+        }
+        if(gzip && !header && !finished) {
+            header = true;
+            // An empty file is taken as empty data
+            finished = !nextMember(true);
+        }
+
+        while(!finished) {
+            int count;
+            try {
+                count = inflater.inflate(b, off, len);
+            }
+            catch(final DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            position = length - inflater.getRemaining();
+
+            if(count > 0) {
+                if(gzip) {
+                    crc.update(b, off, count);
+                }
+                return count;
+            }
+
+            if(inflater.finished()) {
+                if(!gzip) {
+                    finished = true;
+                }
+                else {
+                    readTrailer();
+                    inflater.reset();
+                    crc.reset();
+                    finished = !nextMember(false);
+                }
+            }
+            else if(inflater.needsDictionary()) {
+                throw new ZipException("Preset dictionaries aren't supported");
+            }
+            else if(inflater.needsInput()) {
+                if(!fill()) {
+                    throw new EOFException("Unexpected end of compressed data");
+                }
+                inflater.setInput(buffer, 0, length);
+            }
+        }
+
+        return -1;
+    }
+
+    private int readByte() throws IOException {
+        if(position == length && !fill()) {
+            throw new EOFException("Unexpected end of gzip data");
+        }
+
+        return buffer[position++] & 0xff;
+    }
+
+    private void readHeader() throws IOException {
+        if(readShort() != GZIP_MAGIC) {
+            throw new ZipException("Not in gzip format");
+        }
+        if(readByte() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = readByte();
+        skip(6);
+
+        if((flags & FEXTRA) != 0) {
+            skip(readShort());
+        }
+        if((flags & FNAME) != 0) {
+            while(readByte() != 0) {}
+        }
+        if((flags & FCOMMENT) != 0) {
+            while(readByte() != 0) {}
+        }
+        if((flags & FHCRC) != 0) {
+            skip(2);
+        }
+
+        inflater.setInput(buffer, position, length - position);
+    }
+
+    private long readInt() throws IOException {
+        return readShort() | (long) readShort() << 16;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | readByte() << 8;
+    }
+
+    private void readTrailer() throws IOException {
+        if(readInt() != crc.getValue()) {
+            throw new ZipException("Corrupt gzip data (bad CRC)");
+        }
+        if(readInt() != (inflater.getBytesWritten() & 0xffffffffL)) {
+            throw new ZipException("Corrupt gzip data (bad length)");
+        }
+    }
+
+    private void skip(int count) throws IOException {
+        for(int i = 0; i < count; i++) {
+            readByte();
+        }
+    }
+}
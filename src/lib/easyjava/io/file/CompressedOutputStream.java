@@ -0,0 +1,144 @@
+package lib.easyjava.io.file;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses into gzip or zlib-wrapped deflate data with a pooled Deflater
+ * and output buffer, which go back to the pool when the stream is closed
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class CompressedOutputStream extends OutputStream {
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0,
+            0, 0, 0, (byte) 0xff};
+
+    private byte[] buffer;
+    private final CRC32 crc;
+    private Deflater deflater;
+    private final boolean gzip;
+    private boolean header;
+    private final int level;
+    private final OutputStream out;
+    private final byte[] single;
+
+    /**
+     * @param out
+     *            the stream to write compressed bytes to
+     * @param gzip
+     *            whether to write gzip rather than zlib-wrapped deflate
+     * @param level
+     *            the compression level
+     * @param bufferSize
+     *            the size in bytes of the compressed data buffer
+     */
+    CompressedOutputStream(OutputStream out, boolean gzip, int level,
+            int bufferSize) {
+        this.out = out;
+        this.gzip = gzip;
+        this.level = level;
+        crc = gzip ? new CRC32() : null;
+        single = new byte[1];
+        buffer = CompressionPool.buffer(bufferSize);
+        deflater = CompressionPool.deflater(level, gzip);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(deflater == null) {
+            return;
+        }
+
+        try {
+            writeHeader();
+            deflater.finish();
+            while(!deflater.finished()) {
+                deflate(Deflater.NO_FLUSH);
+            }
+            if(gzip) {
+                writeInt(crc.getValue());
+                writeInt(deflater.getBytesRead());
+            }
+            out.flush();
+        }
+        finally {
+            CompressionPool.release(deflater, level, gzip);
+            CompressionPool.release(buffer);
+            deflater = null;
+            buffer = null;
+            out.close();
+        }
+    }
+
+    private void deflate(int flush) throws IOException {
+        final int count = deflater.deflate(buffer, 0, buffer.length, flush);
+        if(count > 0) {
+            out.write(buffer, 0, count);
+        }
+    }
+
+    /**
+     * Pushes everything written so far through the Deflater, so a reader can
+     * decompress it, and flushes the underlying stream. Flushing often costs
+     * some compression.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if(deflater == null) {
+            throw new IOException("Stream closed");
+        }
+
+        writeHeader();
+        int count;
+        do {
+            count = deflater.deflate(buffer, 0, buffer.length,
+                    Deflater.SYNC_FLUSH);
+            out.write(buffer, 0, count);
+        }
+        while(count == buffer.length);
+        out.flush();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if(deflater == null) {
+            throw new IOException("Stream closed");
+        }
+        if(len == 0) {
+            return;
+        }
+
+        writeHeader();
+        if(gzip) {
+            crc.update(b, off, len);
+        }
+        deflater.setInput(b, off, len);
+        while(!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    private void writeHeader() throws IOException {
+        if(gzip && !header) {
+            header = true;
+            out.write(GZIP_HEADER);
+        }
+    }
+
+    private void writeInt(long value) throws IOException {
+        out.write((int) value & 0xff);
+        out.write((int) (value >> 8) & 0xff);
+        out.write((int) (value >> 16) & 0xff);
+        out.write((int) (value >> 24) & 0xff);
+    }
+}
@@ -0,0 +1,190 @@
+package lib.easyjava.io.file;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Decides whether FileReaders and FileWriters compress what goes through
+ * them. Inflaters, Deflaters and buffers are pooled, so opening many small
+ * compressed files doesn't allocate new zlib state for each one.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class Compression {
+    private enum Format {
+        DEFLATE, GZIP, NONE
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 65536;
+
+    /**
+     * zlib-wrapped deflate, as written by java.util.zip.DeflaterOutputStream
+     */
+    public static final Compression DEFLATE = new Compression(Format.DEFLATE,
+            Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+
+    /**
+     * gzip, as written by the gzip tool. Files made of several gzip members
+     * one after another are read as one.
+     */
+    public static final Compression GZIP = new Compression(Format.GZIP,
+            Deflater.DEFAULT_COMPRESSION, DEFAULT_BUFFER_SIZE);
+
+    /**
+     * No compression
+     */
+    public static final Compression NONE = new Compression(Format.NONE, 0, 0);
+
+    /**
+     * zlib-wrapped deflate with the given settings
+     * 
+     * @param level
+     *            the compression level, from 0 (fastest) to 9 (smallest)
+     * @param bufferSize
+     *            the size in bytes of the compressed data buffer
+     * @return the compression
+     */
+    public static Compression deflate(int level, int bufferSize) {
+        return new Compression(Format.DEFLATE, level, bufferSize);
+    }
+
+    /**
+     * Picks the compression for a file from its extension: .gz and .gzip are
+     * gzip, .deflate and .zz are zlib-wrapped deflate, and anything else
+     * isn't compressed
+     * 
+     * @param file
+     *            the file
+     * @return the compression
+     */
+    public static Compression forFile(File file) {
+        final String name = file.getName().toLowerCase();
+        if(name.endsWith(".gz") || name.endsWith(".gzip")) {
+            return GZIP;
+        }
+        if(name.endsWith(".deflate") || name.endsWith(".zz")) {
+            return DEFLATE;
+        }
+
+        return NONE;
+    }
+
+    /**
+     * gzip with the given settings
+     * 
+     * @param level
+     *            the compression level, from 0 (fastest) to 9 (smallest)
+     * @param bufferSize
+     *            the size in bytes of the compressed data buffer
+     * @return the compression
+     */
+    public static Compression gzip(int level, int bufferSize) {
+        return new Compression(Format.GZIP, level, bufferSize);
+    }
+
+    private final int bufferSize;
+    private final Format format;
+    private final int level;
+
+    private Compression(Format format, int level, int bufferSize) {
+        if(format != Format.NONE) {
+            if(level < -1 || level > 9) {
+                throw new IllegalArgumentException("Invalid level " + level);
+            }
+            if(bufferSize <= 0) {
+                throw new IllegalArgumentException("Invalid buffer size "
+                        + bufferSize);
+            }
+        }
+
+        this.format = format;
+        this.level = level;
+        this.bufferSize = bufferSize;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof Compression)) {
+            return false;
+        }
+        final Compression other = (Compression) obj;
+        if(bufferSize != other.bufferSize) {
+            return false;
+        }
+        if(format != other.format) {
+            return false;
+        }
+        if(level != other.level) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + bufferSize;
+        result = prime * result + (format == null ? 0 : format.hashCode());
+        result = prime * result + level;
+        return result;
+    }
+
+    /**
+     * Checks whether this actually compresses anything
+     * 
+     * @return whether this is anything but NONE
+     */
+    public boolean isCompressed() {
+        return format != Format.NONE;
+    }
+
+    @Override
+    public String toString() {
+        if(format == Format.NONE) {
+            return "Compression(none)";
+        }
+
+        return "Compression(" + format.name().toLowerCase() + ", level "
+                + level + ", " + bufferSize + " bytes)";
+    }
+
+    /**
+     * Wraps a stream of compressed bytes in one that decompresses them
+     * 
+     * @param in
+     *            the compressed stream
+     * @return the decompressed stream
+     */
+    InputStream wrap(InputStream in) {
+        if(format == Format.NONE) {
+            return in;
+        }
+
+        return new CompressedInputStream(in, format == Format.GZIP, bufferSize);
+    }
+
+    /**
+     * Wraps a stream in one that compresses what's written to it
+     * 
+     * @param out
+     *            the stream to write compressed bytes to
+     * @return the compressing stream
+     */
+    OutputStream wrap(OutputStream out) {
+        if(format == Format.NONE) {
+            return out;
+        }
+
+        return new CompressedOutputStream(out, format == Format.GZIP, level,
+                bufferSize);
+    }
+}
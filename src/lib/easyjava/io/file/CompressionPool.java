@@ -0,0 +1,90 @@
+package lib.easyjava.io.file;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Keeps Inflaters, Deflaters and byte buffers around for reuse, so opening a
+ * compressed file doesn't allocate fresh native zlib state and buffers
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class CompressionPool {
+    private static final ConcurrentMap<Integer, Queue<byte[]>> buffers =
+            new ConcurrentHashMap<Integer, Queue<byte[]>>();
+    private static final ConcurrentMap<Integer, Queue<Deflater>> deflaters =
+            new ConcurrentHashMap<Integer, Queue<Deflater>>();
+    private static final ConcurrentMap<Boolean, Queue<Inflater>> inflaters =
+            new ConcurrentHashMap<Boolean, Queue<Inflater>>();
+    private static final int MAX_POOLED = 16;
+
+    static byte[] buffer(int size) {
+        final byte[] buffer = queue(buffers, size).poll();
+        return buffer == null ? new byte[size] : buffer;
+    }
+
+    static Deflater deflater(int level, boolean nowrap) {
+        final Deflater deflater = queue(deflaters, deflaterKey(level, nowrap))
+                .poll();
+        return deflater == null ? new Deflater(level, nowrap) : deflater;
+    }
+
+    private static int deflaterKey(int level, boolean nowrap) {
+        return (level + 1) * 2 + (nowrap ? 1 : 0);
+    }
+
+    static Inflater inflater(boolean nowrap) {
+        final Inflater inflater = queue(inflaters, nowrap).poll();
+        return inflater == null ? new Inflater(nowrap) : inflater;
+    }
+
+    private static <K, T> Queue<T> queue(ConcurrentMap<K, Queue<T>> pool,
+            K key) {
+        Queue<T> queue = pool.get(key);
+        if(queue == null) {
+            final Queue<T> created = new ConcurrentLinkedQueue<T>();
+            queue = pool.putIfAbsent(key, created);
+            if(queue == null) {
+                queue = created;
+            }
+        }
+
+        return queue;
+    }
+
+    static void release(byte[] buffer) {
+        final Queue<byte[]> queue = queue(buffers, buffer.length);
+        if(queue.size() < MAX_POOLED) {
+            queue.offer(buffer);
+        }
+    }
+
+    static void release(Deflater deflater, int level, boolean nowrap) {
+        final Queue<Deflater> queue = queue(deflaters, deflaterKey(level,
+                nowrap));
+        if(queue.size() < MAX_POOLED) {
+            deflater.reset();
+            queue.offer(deflater);
+        }
+        else {
+            deflater.end();
+        }
+    }
+
+    static void release(Inflater inflater, boolean nowrap) {
+        final Queue<Inflater> queue = queue(inflaters, nowrap);
+        if(queue.size() < MAX_POOLED) {
+            inflater.reset();
+            queue.offer(inflater);
+        }
+        else {
+            inflater.end();
+        }
+    }
+
+    private CompressionPool() {}
+}
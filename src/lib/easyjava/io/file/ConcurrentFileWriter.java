@@ -0,0 +1,282 @@
+package lib.easyjava.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A FileWriter that many threads can share. Each thread writes into a buffer
+ * of its own, which is only moved into the file at a record boundary, so
+ * records from different threads never interleave and threads only contend
+ * when a buffer fills up.
+ * 
+ * Every write call is one whole record. A record can also be built up with
+ * append calls and finished with endRecord. Text is only guaranteed to be in
+ * the file after flush or close.
+ * 
+ * Each thread that writes gets a buffer of about bufferSize chars. A
+ * thread's buffer is let go at the first flush after the thread ends, once
+ * everything in it has been moved into the file.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class ConcurrentFileWriter extends FileWriter {
+    private static class Buffer {
+        private int boundary;
+        private final Thread owner;
+        private final StringBuilder text;
+
+        private Buffer(int size) {
+            owner = Thread.currentThread();
+            text = new StringBuilder(size);
+        }
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private final Queue<Buffer> allBuffers;
+    private final int bufferSize;
+    private final ThreadLocal<Buffer> buffers;
+    private volatile boolean closed;
+    private final Object lock;
+
+    /**
+     * @param file
+     *            the file to write to
+     * @throws IOException
+     */
+    public ConcurrentFileWriter(File file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE, FlushPolicy.ALWAYS);
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param bufferSize
+     *            the number of chars each thread buffers before moving them
+     *            into the file
+     * @param flushPolicy
+     *            when to flush text moved into the file
+     * @throws IOException
+     */
+    public ConcurrentFileWriter(File file, final int bufferSize,
+            FlushPolicy flushPolicy) throws IOException {
+        super(file, flushPolicy);
+        this.bufferSize = bufferSize;
+        allBuffers = new ConcurrentLinkedQueue<Buffer>();
+        lock = new Object();
+        buffers = new ThreadLocal<Buffer>() {
+            @Override
+            protected Buffer initialValue() {
+                final Buffer buffer = new Buffer(bufferSize);
+                allBuffers.add(buffer);
+                return buffer;
+            }
+        };
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @throws IOException
+     */
+    public ConcurrentFileWriter(String filePath) throws IOException {
+        this(new File(filePath));
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param bufferSize
+     *            the number of chars each thread buffers before moving them
+     *            into the file
+     * @param flushPolicy
+     *            when to flush text moved into the file
+     * @throws IOException
+     */
+    public ConcurrentFileWriter(String filePath, int bufferSize,
+            FlushPolicy flushPolicy) throws IOException {
+        this(new File(filePath), bufferSize, flushPolicy);
+    }
+
+    /**
+     * Adds a char to the calling thread's current record
+     * 
+     * @param c
+     *            the char to add
+     * @return this writer
+     * @throws IOException
+     */
+    @Override
+    public FileWriter append(char c) throws IOException {
+        final Buffer buffer = buffers.get();
+        synchronized(buffer) {
+            ensureOpen();
+            buffer.text.append(c);
+        }
+
+        return this;
+    }
+
+    /**
+     * Adds text to the calling thread's current record
+     * 
+     * @param text
+     *            the text to add
+     * @param start
+     *            the index of the first char to add
+     * @param end
+     *            the index just past the last char to add
+     * @return this writer
+     * @throws IOException
+     */
+    @Override
+    public FileWriter append(CharSequence text, int start, int end)
+            throws IOException {
+        final Buffer buffer = buffers.get();
+        synchronized(buffer) {
+            ensureOpen();
+            buffer.text.append(text, start, end);
+        }
+
+        return this;
+    }
+
+    /**
+     * Moves every thread's buffered records into the file, including any
+     * unfinished ones, then closes the writer
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        // Set first, so any write that gets into a buffer after it's been
+        // drained finds out the writer is closed rather than being lost
+        closed = true;
+        for(final Buffer buffer : allBuffers) {
+            synchronized(buffer) {
+                buffer.boundary = buffer.text.length();
+                drain(buffer);
+            }
+        }
+
+        synchronized(lock) {
+            super.close();
+        }
+    }
+
+    private void drain(Buffer buffer) throws IOException {
+        if(buffer.boundary == 0) {
+            return;
+        }
+
+        // Take the records out of the buffer before writing them, so nothing
+        // the write does can see them again. The caller holds the buffer's
+        // monitor, and lock is always taken after it, never before.
+        final String records = buffer.text.substring(0, buffer.boundary);
+        buffer.text.delete(0, buffer.boundary);
+        buffer.boundary = 0;
+
+        synchronized(lock) {
+            super.append(records, 0, records.length());
+        }
+    }
+
+    /**
+     * Finishes the calling thread's current record, started with append
+     * 
+     * @throws IOException
+     */
+    public void endRecord() throws IOException {
+        final Buffer buffer = buffers.get();
+        synchronized(buffer) {
+            ensureOpen();
+            buffer.boundary = buffer.text.length();
+            if(buffer.boundary >= bufferSize) {
+                drain(buffer);
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if(closed) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Moves every thread's finished records into the file and flushes it
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        for(final Buffer buffer : allBuffers) {
+            synchronized(buffer) {
+                drain(buffer);
+                // A thread that's gone can't finish a record or write again
+                if(!buffer.owner.isAlive() && buffer.text.length() == 0) {
+                    allBuffers.remove(buffer);
+                }
+            }
+        }
+
+        synchronized(lock) {
+            super.flush();
+        }
+    }
+
+    /**
+     * Moves every thread's finished records into the file, then closes and
+     * reopens it. Records finished while it's being reopened may land in
+     * either one.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void reopen() throws IOException {
+        flush();
+        synchronized(lock) {
+            super.reopen();
+        }
+    }
+
+    /**
+     * Writes the given chars as one record
+     * 
+     * @param chars
+     *            the chars to write to the file
+     * @param offset
+     *            the index of the first char to write
+     * @param length
+     *            the number of chars to write
+     * @throws IOException
+     */
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        final Buffer buffer = buffers.get();
+        synchronized(buffer) {
+            ensureOpen();
+            buffer.text.append(chars, offset, length);
+        }
+        endRecord();
+    }
+
+    /**
+     * Writes the given string as one record
+     * 
+     * @param text
+     *            the text to write to the file
+     * @throws IOException
+     */
+    @Override
+    public void write(String text) throws IOException {
+        final Buffer buffer = buffers.get();
+        synchronized(buffer) {
+            ensureOpen();
+            buffer.text.append(text);
+        }
+        endRecord();
+    }
+}
@@ -0,0 +1,281 @@
+package lib.easyjava.io.file;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A BufferedReader for US-ASCII, ISO-8859-1 and UTF-8 that works on bytes
+ * rather than chars. readLine finds the end of the line in the byte buffer
+ * and decodes the line straight into a String, which the JVM special-cases
+ * for these charsets, so there's no CharsetDecoder and no intermediate char
+ * buffer. Malformed input is replaced with U+FFFD, as InputStreamReader does.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class FastLineReader extends BufferedReader {
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Checks whether a charset decodes every byte below 0x80 as the same
+     * char, so line terminators can be found without decoding
+     * 
+     * @param charset
+     *            the charset
+     * @return whether ASCII bytes always mean ASCII chars
+     */
+    static boolean isAsciiCompatible(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8)
+                || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Opens a BufferedReader over a stream, which is one of these if the
+     * charset is one it handles and an ordinary one otherwise
+     * 
+     * @param in
+     *            the stream to decode
+     * @param charset
+     *            the charset of the stream
+     * @return the reader
+     */
+    static BufferedReader open(InputStream in, Charset charset) {
+        if(!isAsciiCompatible(charset)) {
+            return new BufferedReader(new InputStreamReader(in, charset));
+        }
+
+        return new FastLineReader(in, charset);
+    }
+
+    private byte[] bytes;
+    private final Charset charset;
+    private String decoded;
+    private int decodedPosition;
+    private boolean eof;
+    private final InputStream in;
+    private int limit;
+    private int position;
+    private boolean skipLF;
+    private final boolean utf8;
+
+    private FastLineReader(InputStream in, Charset charset) {
+        // BufferedReader needs a Reader to wrap, but every method that would
+        // use it is overridden to read from the byte buffer instead
+        super(new StringReader(""), 1);
+        this.in = in;
+        this.charset = charset;
+        utf8 = charset.equals(StandardCharsets.UTF_8);
+        bytes = new byte[BUFFER_SIZE];
+        decoded = "";
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private int completeLength() {
+        // Leave a UTF-8 sequence cut off by the end of the buffer for the next
+        // fill. A lead byte is at most 3 bytes back from the end.
+        for(int i = limit - 1; i >= limit - 3 && i >= position; i--) {
+            final int b = bytes[i] & 0xff;
+            if(b < 0x80) {
+                break;
+            }
+            if(b >= 0xc0) {
+                final int needed = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : 2;
+                if(limit - i < needed) {
+                    return i - position;
+                }
+                break;
+            }
+        }
+
+        return limit - position;
+    }
+
+    private boolean decode() throws IOException {
+        // Decodes the next buffer full of bytes for the char-based methods
+        while(decodedPosition == decoded.length()) {
+            final int count = utf8 && !eof ? completeLength() : limit
+                    - position;
+            if(count > 0) {
+                decoded = new String(bytes, position, count, charset);
+                decodedPosition = 0;
+                position += count;
+            }
+            else if(!fill() && position == limit) {
+                return false;
+            }
+        }
+
+        if(skipLF) {
+            skipLF = false;
+            if(decoded.charAt(decodedPosition) == '\n') {
+                decodedPosition++;
+                return decode();
+            }
+        }
+
+        return true;
+    }
+
+    private boolean fill() throws IOException {
+        if(eof) {
+            return false;
+        }
+
+        // Keep the unread bytes, growing the buffer if a line fills it
+        final int kept = limit - position;
+        if(kept == bytes.length) {
+            bytes = Arrays.copyOf(bytes, bytes.length * 2);
+        }
+        System.arraycopy(bytes, position, bytes, 0, kept);
+        position = 0;
+        limit = kept;
+
+        final int read = in.read(bytes, limit, bytes.length - limit);
+        if(read < 0) {
+            eof = true;
+            return false;
+        }
+
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark() not supported");
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!decode()) {
+            return -1;
+        }
+
+        return decoded.charAt(decodedPosition++);
+    }
+
+    @Override
+    public int read(char[] chars, int offset, int length) throws IOException {
+        if(length == 0) {
+            return 0;
+        }
+        if(!decode()) {
+            return -1;
+        }
+
+        final int count = Math.min(length, decoded.length() - decodedPosition);
+        decoded.getChars(decodedPosition, decodedPosition + count, chars,
+                offset);
+        decodedPosition += count;
+        return count;
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        // Finish off anything already decoded by the char-based methods
+        String start = null;
+        if(decodedPosition < decoded.length() && decode()) {
+            for(int i = decodedPosition; i < decoded.length(); i++) {
+                final char c = decoded.charAt(i);
+                if(c == '\n' || c == '\r') {
+                    final String line = decoded.substring(decodedPosition, i);
+                    decodedPosition = i + 1;
+                    skipLF = c == '\r';
+                    return line;
+                }
+            }
+
+            start = decoded.substring(decodedPosition);
+            decodedPosition = decoded.length();
+        }
+
+        final String line = readLineBytes();
+        if(start == null) {
+            return line;
+        }
+
+        return line == null ? start : start + line;
+    }
+
+    private String readLineBytes() throws IOException {
+        int scanned = 0;
+        while(true) {
+            if(skipLF) {
+                if(position == limit && !fill()) {
+                    return null;
+                }
+                skipLF = false;
+                if(bytes[position] == '\n') {
+                    position++;
+                }
+            }
+
+            // Scan with locals so the loop doesn't reload fields
+            final byte[] buffer = bytes;
+            final int end = limit;
+            int i = position + scanned;
+            while(i < end && buffer[i] != '\n' && buffer[i] != '\r') {
+                i++;
+            }
+
+            if(i < end) {
+                final String line = new String(buffer, position, i - position,
+                        charset);
+                skipLF = buffer[i] == '\r';
+                position = i + 1;
+                return line;
+            }
+
+            scanned = i - position;
+            if(!fill()) {
+                if(position == limit) {
+                    return null;
+                }
+
+                final String line = new String(bytes, position, limit
+                        - position, charset);
+                position = limit;
+                return line;
+            }
+        }
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return decodedPosition < decoded.length() || position < limit
+                || in.available() > 0;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset() not supported");
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while(skipped < n && decode()) {
+            final int count = (int) Math.min(n - skipped, decoded.length()
+                    - decodedPosition);
+            decodedPosition += count;
+            skipped += count;
+        }
+
+        return skipped;
+    }
+}
@@ -0,0 +1,261 @@
+package lib.easyjava.io.file;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.util.stream.Stream;
+
+/**
+ * A byte range of a file that starts at the beginning of a line and ends just
+ * after a line terminator (or at the end of the file). Chunks can be read
+ * independently, so a file split into chunks can be processed in parallel.
+ * Finding lines by their bytes only works in charsets that encode line
+ * terminators as single bytes: UTF-8, US-ASCII and ISO-8859-1.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class FileChunk {
+    private final Charset charset;
+    private final long end;
+    private final File file;
+    private final long start;
+
+    /**
+     * @param file
+     *            the file the chunk is part of
+     * @param start
+     *            the offset of the first byte in the chunk
+     * @param end
+     *            the offset just past the last byte in the chunk
+     */
+    public FileChunk(File file, long start, long end) {
+        this(file, start, end, Charset.defaultCharset());
+    }
+
+    /**
+     * @param file
+     *            the file the chunk is part of
+     * @param start
+     *            the offset of the first byte in the chunk
+     * @param end
+     *            the offset just past the last byte in the chunk
+     * @param charset
+     *            the charset the file is encoded in
+     * @throws IllegalArgumentException
+     *             if the charset doesn't encode line terminators as single
+     *             bytes
+     */
+    public FileChunk(File file, long start, long end, Charset charset) {
+        LineScanner.checkCharset(charset);
+        this.file = file;
+        this.start = start;
+        this.end = end;
+        this.charset = charset;
+    }
+
+    /**
+     * Counts the lines in the chunk without decoding them
+     * 
+     * @return the number of lines in the chunk
+     * @throws IOException
+     */
+    public long countLines() throws IOException {
+        final InputStream in = new RangeInputStream(file, start, end);
+        final byte[] buffer = new byte[64 * 1024];
+        long lines = 0;
+        byte last = '\n';
+
+        try {
+            int read;
+            while((read = in.read(buffer)) > 0) {
+                for(int i = 0; i < read; i++) {
+                    final byte b = buffer[i];
+                    if(b == '\r' || b == '\n' && last != '\r') {
+                        lines++;
+                    }
+                    last = b;
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+
+        // An unterminated last line still counts
+        if(last != '\n' && last != '\r') {
+            lines++;
+        }
+
+        return lines;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof FileChunk)) {
+            return false;
+        }
+        final FileChunk other = (FileChunk) obj;
+        if(!charset.equals(other.charset)) {
+            return false;
+        }
+        if(end != other.end) {
+            return false;
+        }
+        if(file == null) {
+            if(other.file != null) {
+                return false;
+            }
+        }
+        else if(!file.equals(other.file)) {
+            return false;
+        }
+        if(start != other.start) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads every line in the chunk
+     * 
+     * @param handler
+     *            the handler to give each line to
+     * @param firstLineNumber
+     *            the line number of the first line in the chunk
+     * @throws IOException
+     */
+    public void forEachLine(LineHandler handler, long firstLineNumber)
+            throws IOException {
+        final BufferedReader reader = openReader();
+        long lineNumber = firstLineNumber;
+
+        try {
+            String line;
+            while((line = reader.readLine()) != null) {
+                handler.handle(line, lineNumber++);
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Gets the offset just past the last byte in the chunk
+     * 
+     * @return the end of the chunk
+     */
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Gets the file the chunk is part of
+     * 
+     * @return the file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the offset of the first byte in the chunk
+     * 
+     * @return the start of the chunk
+     */
+    public long getStart() {
+        return start;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + charset.hashCode();
+        result = prime * result + (int) (end ^ end >>> 32);
+        result = prime * result + (file == null ? 0 : file.hashCode());
+        result = prime * result + (int) (start ^ start >>> 32);
+        return result;
+    }
+
+    /**
+     * Gets the size of the chunk
+     * 
+     * @return the number of bytes in the chunk
+     */
+    public long length() {
+        return end - start;
+    }
+
+    /**
+     * Gets a lazy Stream of the lines in the chunk. Closing the stream closes
+     * the underlying file.
+     * 
+     * @return the lines in the chunk
+     * @throws IOException
+     */
+    public Stream<String> lines() throws IOException {
+        final BufferedReader reader = openReader();
+
+        return reader.lines().onClose(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reader.close();
+                }
+                catch(final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    BufferedReader openReader() throws IOException {
+        return FastLineReader.open(new RangeInputStream(file, start, end),
+                charset);
+    }
+
+    @Override
+    public String toString() {
+        return "FileChunk(" + file.getAbsolutePath() + ", " + start + "-" + end
+                + ")";
+    }
+
+    /**
+     * Visits every line in the chunk without creating a String for each one
+     * 
+     * @param visitor
+     *            the visitor to give each line to
+     * @param firstLineNumber
+     *            the line number of the first line in the chunk
+     * @throws IOException
+     */
+    public void visitLines(LineVisitor visitor, long firstLineNumber)
+            throws IOException {
+        final LineScanner scanner = new LineScanner(new RangeInputStream(file,
+                start, end), start, charset);
+        final LineView line = new LineView();
+        long lineNumber = firstLineNumber;
+
+        try {
+            while(scanner.next()) {
+                scanner.decode(line);
+                if(!visitor.visit(line, lineNumber++, scanner.lineOffset())) {
+                    break;
+                }
+            }
+        }
+        finally {
+            scanner.close();
+        }
+    }
+}
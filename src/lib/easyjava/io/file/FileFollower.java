@@ -0,0 +1,281 @@
+package lib.easyjava.io.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Follows a file as it grows, like tail -F. The position is kept as a byte
+ * offset, so each check only reads the bytes added since the last one. A
+ * truncated file is read again from the start, and a file that's been
+ * replaced (rotated) is finished off before moving on to the new one.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class FileFollower implements Closeable {
+    private static final long DEFAULT_MAX_WAIT = 1000;
+    private static final long DEFAULT_MIN_WAIT = 10;
+
+    private FileChannel channel;
+    private boolean closed;
+    private final File file;
+    private Object fileKey;
+    private final boolean fromEnd;
+    private long lineNumber;
+    private final LineView line;
+    private final long maxWait;
+    private final long minWait;
+    private long position;
+    private LineScanner scanner;
+
+    /**
+     * Follows a file from its beginning
+     * 
+     * @param file
+     *            the file to follow
+     */
+    public FileFollower(File file) {
+        this(file, false);
+    }
+
+    /**
+     * @param file
+     *            the file to follow
+     * @param fromEnd
+     *            whether to skip the lines already in the file
+     */
+    public FileFollower(File file, boolean fromEnd) {
+        this(file, fromEnd, DEFAULT_MIN_WAIT, DEFAULT_MAX_WAIT);
+    }
+
+    /**
+     * @param file
+     *            the file to follow
+     * @param fromEnd
+     *            whether to skip the lines already in the file
+     * @param minWait
+     *            the shortest time to wait between checks, in milliseconds.
+     *            Used while the file is growing.
+     * @param maxWait
+     *            the longest time to wait between checks, in milliseconds.
+     *            The wait doubles up to this while the file is idle.
+     * @throws IllegalArgumentException
+     *             if minWait isn't positive or is more than maxWait
+     */
+    public FileFollower(File file, boolean fromEnd, long minWait,
+            long maxWait) {
+        if(minWait <= 0) {
+            throw new IllegalArgumentException("Minimum wait must be "
+                    + "positive: " + minWait);
+        }
+        if(maxWait < minWait) {
+            throw new IllegalArgumentException("Maximum wait must not be "
+                    + "less than the minimum: " + maxWait);
+        }
+        this.file = file;
+        this.fromEnd = fromEnd;
+        this.minWait = minWait;
+        this.maxWait = maxWait;
+        line = new LineView();
+    }
+
+    /**
+     * Follows a file from its beginning
+     * 
+     * @param filePath
+     *            the path of the file to follow
+     */
+    public FileFollower(String filePath) {
+        this(new File(filePath));
+    }
+
+    /**
+     * Stops following the file. A follow call in another thread returns.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        closed = true;
+        notifyAll();
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof FileFollower)) {
+            return false;
+        }
+        final FileFollower other = (FileFollower) obj;
+        if(file == null) {
+            if(other.file != null) {
+                return false;
+            }
+        }
+        else if(!file.equals(other.file)) {
+            return false;
+        }
+        if(position != other.position) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads new lines as they're added to the file, blocking until close is
+     * called or the thread is interrupted. Waits between checks grow while
+     * the file is idle and shrink again once it's growing.
+     * 
+     * @param handler
+     *            the handler to give each new line to
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public synchronized void follow(LineHandler handler) throws IOException,
+            InterruptedException {
+        long wait = minWait;
+        while(!closed) {
+            if(poll(handler) > 0) {
+                wait = minWait;
+            }
+            else {
+                wait(wait);
+                wait = Math.min(wait * 2, maxWait);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lines read from the current file. When following
+     * from the end, lines already in the file aren't counted.
+     * 
+     * @return the number of the last line read
+     */
+    public synchronized long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Gets the byte offset in the current file just past the last line read
+     * 
+     * @return the position in the file
+     */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (file == null ? 0 : file.hashCode());
+        result = prime * result + (int) (position ^ position >>> 32);
+        return result;
+    }
+
+    /**
+     * Reads whatever complete lines have been added to the file since the
+     * last check, without waiting for more
+     * 
+     * @param handler
+     *            the handler to give each new line to
+     * @return the number of lines read
+     * @throws IOException
+     */
+    public synchronized int poll(LineHandler handler) throws IOException {
+        if(closed) {
+            return 0;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+        }
+        catch(final NoSuchFileException e) {
+            // Between rotating the old file out and creating the new one
+            attributes = null;
+        }
+
+        if(channel == null) {
+            if(attributes == null) {
+                return 0;
+            }
+
+            open(attributes);
+            if(fromEnd && lineNumber == 0) {
+                position = channel.size();
+            }
+        }
+
+        int lines = 0;
+        final boolean rotated = attributes != null
+                && attributes.fileKey() != null
+                && !attributes.fileKey().equals(fileKey);
+        if(rotated) {
+            // Finish the old file before moving on to its replacement
+            lines += read(handler);
+            channel.close();
+            open(attributes);
+            position = 0;
+            lineNumber = 0;
+        }
+        else if(channel.size() < position) {
+            position = 0;
+            lineNumber = 0;
+        }
+
+        return lines + read(handler);
+    }
+
+    private void open(BasicFileAttributes attributes) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        fileKey = attributes.fileKey();
+    }
+
+    private int read(LineHandler handler) throws IOException {
+        final long size = channel.size();
+        if(size <= position) {
+            return 0;
+        }
+
+        // The channel is closed separately, so the stream is left open
+        final RangeInputStream in = new RangeInputStream(channel, position,
+                size);
+        if(scanner == null) {
+            scanner = new LineScanner(in, position, Charset.defaultCharset());
+        }
+        else {
+            scanner.reset(in, position);
+        }
+        int lines = 0;
+        while(scanner.next() && scanner.complete()) {
+            scanner.decode(line);
+            position = scanner.nextOffset();
+            handler.handle(line.toString(), ++lineNumber);
+            lines++;
+        }
+
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return "FileFollower(" + file.getAbsolutePath() + ")";
+    }
+}
@@ -1,16 +1,309 @@
 package lib.easyjava.io.file;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Simplifies the interface for reading from files
  * 
  * @author Rob Rua (rrua@andrew.cmu.edu)
  */
-public class FileReader {
+public class FileReader implements Closeable, Iterable<String> {
+    private static final int MAX_BUFFER_SIZE = Integer.MAX_VALUE - 8;
+    private static final long MAX_COMPRESSED_GUESS = 4 << 20;
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private static int defaultChunkCount(File file) {
+        final long chunks = Math.min(file.length() / MIN_CHUNK_SIZE,
+                ForkJoinPool.getCommonPoolParallelism() * 4L);
+        return (int) Math.max(1, chunks);
+    }
+
+    private static long[] firstLineNumbers(final List<FileChunk> chunks)
+            throws IOException {
+        // Count each chunk's lines first so every line gets its global number
+        final long[] firstLines = new long[chunks.size()];
+        try {
+            IntStream.range(0, chunks.size()).parallel()
+                    .forEach(new IntConsumer() {
+                        @Override
+                        public void accept(int i) {
+                            try {
+                                firstLines[i] = chunks.get(i).countLines();
+                            }
+                            catch(final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+        }
+        catch(final UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        long lineNumber = 1;
+        for(int i = 0; i < firstLines.length; i++) {
+            final long count = firstLines[i];
+            firstLines[i] = lineNumber;
+            lineNumber += count;
+        }
+
+        return firstLines;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position,
+            long length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while(position < length) {
+            buffer.clear();
+            final int read = channel.read(buffer, position);
+            if(read < 0) {
+                break;
+            }
+
+            for(int i = 0; i < read; i++) {
+                if(buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+
+        return length;
+    }
+
+    private static boolean isSplittable(File file, Charset charset) {
+        // Chunks are split at '\n' bytes, which needs uncompressed data and a
+        // charset with single byte line terminators
+        return !Compression.forFile(file).isCompressed()
+                && FastLineReader.isAsciiCompatible(charset);
+    }
+
+    /**
+     * Reads every line of the file in parallel on the common ForkJoinPool,
+     * in the platform's default charset
+     * 
+     * @param file
+     *            the file to read
+     * @param handler
+     *            the handler to give each line to
+     * @throws IOException
+     */
+    public static void parallelForEachLine(File file, LineHandler handler)
+            throws IOException {
+        parallelForEachLine(file, Charset.defaultCharset(), handler);
+    }
+
+    /**
+     * Reads every line of the file in parallel on the common ForkJoinPool. The
+     * handler is called from many threads at once and in no particular order,
+     * but each line comes with the line number readLine would have given it.
+     * Compressed files, and files in charsets other than UTF-8, US-ASCII and
+     * ISO-8859-1, can't be split and are read on the calling thread.
+     * 
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset the file is encoded in
+     * @param handler
+     *            the handler to give each line to
+     * @throws IOException
+     */
+    public static void parallelForEachLine(File file, Charset charset,
+            final LineHandler handler) throws IOException {
+        if(!isSplittable(file, charset)) {
+            final FileReader reader = new FileReader(file, charset);
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    handler.handle(line, reader.getLineNumber());
+                }
+            }
+            finally {
+                reader.close();
+            }
+            return;
+        }
+
+        final List<FileChunk> chunks = split(file, defaultChunkCount(file),
+                charset);
+        final long[] firstLines = firstLineNumbers(chunks);
+        try {
+            IntStream.range(0, chunks.size()).parallel()
+                    .forEach(new IntConsumer() {
+                        @Override
+                        public void accept(int i) {
+                            try {
+                                chunks.get(i).forEachLine(handler,
+                                        firstLines[i]);
+                            }
+                            catch(final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+        }
+        catch(final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Gets a parallel Stream of the lines of the file, in the platform's
+     * default charset
+     * 
+     * @param file
+     *            the file to read
+     * @return the lines of the file
+     * @throws IOException
+     */
+    public static Stream<String> parallelLines(File file) throws IOException {
+        return parallelLines(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Gets a parallel Stream of the lines of the file. The file is split into
+     * chunks which are read on the common ForkJoinPool. Compressed files, and
+     * files in charsets other than UTF-8, US-ASCII and ISO-8859-1, can't be
+     * split, so their lines are read one at a time and only the work done on
+     * them downstream runs in parallel. Close the stream to release the file.
+     * 
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset the file is encoded in
+     * @return the lines of the file
+     * @throws IOException
+     */
+    public static Stream<String> parallelLines(File file, Charset charset)
+            throws IOException {
+        if(!isSplittable(file, charset)) {
+            // lines() closes the reader when the stream is closed
+            return new FileReader(file, charset).lines().parallel();
+        }
+
+        final List<FileChunk> chunks = split(file, defaultChunkCount(file),
+                charset);
+
+        return chunks.parallelStream().flatMap(
+                new Function<FileChunk, Stream<String>>() {
+                    @Override
+                    public Stream<String> apply(FileChunk chunk) {
+                        try {
+                            return chunk.lines();
+                        }
+                        catch(final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Visits every line of the file in parallel on the common ForkJoinPool,
+     * in the platform's default charset
+     * 
+     * @param file
+     *            the file to read
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     */
+    public static void parallelVisitLines(File file, LineVisitor visitor)
+            throws IOException {
+        parallelVisitLines(file, Charset.defaultCharset(), visitor);
+    }
+
+    /**
+     * Visits every line of the file in parallel on the common ForkJoinPool,
+     * without creating a String for each one. The visitor is called from many
+     * threads at once and in no particular order, each thread with lines of
+     * its own, and each line comes with its global line number and byte
+     * offset. Once the visitor returns false no more lines are visited.
+     * Compressed files can't be split and are visited on the calling thread.
+     * 
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset the file is encoded in, which has to be UTF-8,
+     *            US-ASCII or ISO-8859-1
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if the charset isn't one of those
+     */
+    public static void parallelVisitLines(File file, Charset charset,
+            final LineVisitor visitor) throws IOException {
+        if(!isSplittable(file, charset)) {
+            visitLines(file, charset, visitor);
+            return;
+        }
+
+        final List<FileChunk> chunks = split(file, defaultChunkCount(file),
+                charset);
+        final long[] firstLines = firstLineNumbers(chunks);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final LineVisitor stoppable = new LineVisitor() {
+            @Override
+            public boolean visit(CharSequence line, long lineNumber,
+                    long byteOffset) throws IOException {
+                if(stopped.get()) {
+                    return false;
+                }
+                if(!visitor.visit(line, lineNumber, byteOffset)) {
+                    stopped.set(true);
+                    return false;
+                }
+
+                return true;
+            }
+        };
+
+        try {
+            IntStream.range(0, chunks.size()).parallel()
+                    .forEach(new IntConsumer() {
+                        @Override
+                        public void accept(int i) {
+                            try {
+                                chunks.get(i).visitLines(stoppable,
+                                        firstLines[i]);
+                            }
+                            catch(final IOException e) {
+                                throw new UncheckedIOException(e);
+                            }
+                        }
+                    });
+        }
+        catch(final UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
     /**
      * Reads the entire file in as a String
      * 
@@ -39,18 +332,188 @@ public class FileReader {
         return readFile(new File(filePath));
     }
 
+    /**
+     * Splits the file into chunks in the platform's default charset
+     * 
+     * @param file
+     *            the file to split
+     * @param count
+     *            the number of chunks to aim for
+     * @return the chunks, in file order
+     * @throws IOException
+     */
+    public static List<FileChunk> split(File file, int count)
+            throws IOException {
+        return split(file, count, Charset.defaultCharset());
+    }
+
+    /**
+     * Splits the file into roughly equal chunks that start and end on line
+     * boundaries. Only "\n" is treated as a boundary, so a file using "\r"
+     * line terminators alone comes back as one chunk.
+     * 
+     * @param file
+     *            the file to split
+     * @param count
+     *            the number of chunks to aim for
+     * @param charset
+     *            the charset the file is encoded in, which has to be UTF-8,
+     *            US-ASCII or ISO-8859-1
+     * @return the chunks, in file order
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if the charset isn't one of those
+     */
+    public static List<FileChunk> split(File file, int count, Charset charset)
+            throws IOException {
+        LineScanner.checkCharset(charset);
+        final List<FileChunk> chunks = new ArrayList<FileChunk>(count);
+        final FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ);
+        try {
+            final long length = channel.size();
+
+            long start = 0;
+            for(int i = 1; i <= count && start < length; i++) {
+                long end = length;
+                if(i < count) {
+                    final long target = Math.max(start, length / count * i
+                            - 1);
+                    end = nextLineStart(channel, target, length);
+                }
+
+                if(end > start) {
+                    chunks.add(new FileChunk(file, start, end, charset));
+                    start = end;
+                }
+            }
+        }
+        finally {
+            channel.close();
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Visits every line of the file in the platform's default charset
+     * 
+     * @param file
+     *            the file to read
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     */
+    public static void visitLines(File file, LineVisitor visitor)
+            throws IOException {
+        visitLines(file, Charset.defaultCharset(), visitor);
+    }
+
+    /**
+     * Visits every line of the file without creating a String for each one.
+     * The lines of a compressed file are given offsets into the decompressed
+     * data.
+     * 
+     * @param file
+     *            the file to read
+     * @param charset
+     *            the charset the file is encoded in, which has to be UTF-8,
+     *            US-ASCII or ISO-8859-1
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if the charset isn't one of those
+     */
+    public static void visitLines(File file, Charset charset,
+            LineVisitor visitor) throws IOException {
+        LineScanner.checkCharset(charset);
+        visitLines(Compression.forFile(file).wrap(new FileInputStream(file)),
+                charset, visitor);
+    }
+
+    private static void visitLines(InputStream in, Charset charset,
+            LineVisitor visitor) throws IOException {
+        final LineScanner scanner = new LineScanner(in, 0, charset);
+        final LineView line = new LineView();
+        long lineNumber = 0;
+
+        try {
+            while(scanner.next()) {
+                scanner.decode(line);
+                if(!visitor.visit(line, ++lineNumber, scanner.lineOffset())) {
+                    break;
+                }
+            }
+        }
+        finally {
+            scanner.close();
+        }
+    }
+
+    private final Charset charset;
+    private final Compression compression;
     private final File file;
+    private LineIndex index;
     private long lineNumber;
     protected BufferedReader reader;
 
     /**
+     * Reads the file in the platform's default charset, decompressing it if
+     * its extension calls for it (see Compression.forFile)
+     * 
      * @param file
      *            the file to read with this reader
      * @throws FileNotFoundException
      */
     public FileReader(File file) throws FileNotFoundException {
+        this(file, Charset.defaultCharset());
+    }
+
+    /**
+     * Decompresses the file if its extension calls for it (see
+     * Compression.forFile). US-ASCII, ISO-8859-1 and UTF-8 are decoded
+     * without a CharsetDecoder, which is considerably faster.
+     * 
+     * @param file
+     *            the file to read with this reader
+     * @param charset
+     *            the charset the file is encoded in
+     * @throws FileNotFoundException
+     */
+    public FileReader(File file, Charset charset) throws FileNotFoundException {
+        this(file, charset, Compression.forFile(file));
+    }
+
+    /**
+     * @param file
+     *            the file to read with this reader
+     * @param charset
+     *            the charset the file is encoded in
+     * @param compression
+     *            how the file is compressed
+     * @throws FileNotFoundException
+     */
+    public FileReader(File file, Charset charset, Compression compression)
+            throws FileNotFoundException {
         this.file = file;
-        reader = new BufferedReader(new java.io.FileReader(file));
+        this.charset = charset;
+        this.compression = compression;
+        reader = open();
+    }
+
+    /**
+     * Reads the file in the platform's default charset
+     * 
+     * @param file
+     *            the file to read with this reader
+     * @param compression
+     *            how the file is compressed
+     * @throws FileNotFoundException
+     */
+    public FileReader(File file, Compression compression)
+            throws FileNotFoundException {
+        this(file, Charset.defaultCharset(), compression);
     }
 
     /**
@@ -62,11 +525,52 @@ public class FileReader {
         this(new File(filePath));
     }
 
+    /**
+     * @param filePath
+     *            the path of the file to read with this reader
+     * @param charset
+     *            the charset the file is encoded in
+     * @throws FileNotFoundException
+     */
+    public FileReader(String filePath, Charset charset)
+            throws FileNotFoundException {
+        this(new File(filePath), charset);
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to read with this reader
+     * @param compression
+     *            how the file is compressed
+     * @throws FileNotFoundException
+     */
+    public FileReader(String filePath, Compression compression)
+            throws FileNotFoundException {
+        this(new File(filePath), compression);
+    }
+
+    /**
+     * Scans the file to build an index of its lines, which seek then uses.
+     * Compressed files can't be indexed.
+     * 
+     * @return the new index
+     * @throws IOException
+     */
+    public LineIndex buildIndex() throws IOException {
+        if(compression.isCompressed()) {
+            throw new IllegalStateException("Can't index a compressed file");
+        }
+
+        index = LineIndex.build(file);
+        return index;
+    }
+
     /**
      * Closes the reader. Call this when you're done with it.
      * 
      * @throws IOException
      */
+    @Override
     public void close() throws IOException {
         reader.close();
     }
@@ -97,6 +601,24 @@ public class FileReader {
         return true;
     }
 
+    /**
+     * Gets the line index used for seeking
+     * 
+     * @return the index, or null if there isn't one
+     */
+    public LineIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the number of lines read so far
+     * 
+     * @return the number of the last line read
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -107,7 +629,71 @@ public class FileReader {
     }
 
     /**
-     * Reads the entire file into a String
+     * Iterates over the remaining lines of the file, reading each one as it's
+     * needed. Errors are rethrown as UncheckedIOExceptions.
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private String next;
+
+            @Override
+            public boolean hasNext() {
+                if(next == null) {
+                    try {
+                        next = readLine();
+                    }
+                    catch(final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+
+                return next != null;
+            }
+
+            @Override
+            public String next() {
+                if(!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+
+                final String line = next;
+                next = null;
+                return line;
+            }
+        };
+    }
+
+    /**
+     * Gets a lazy Stream of the remaining lines of the file. Closing the
+     * stream closes the reader.
+     * 
+     * @return the remaining lines of the file
+     */
+    public Stream<String> lines() {
+        final Spliterator<String> lines = Spliterators.spliteratorUnknownSize(
+                iterator(), Spliterator.ORDERED | Spliterator.NONNULL);
+
+        return StreamSupport.stream(lines, false).onClose(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    close();
+                }
+                catch(final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+    }
+
+    private BufferedReader open() throws FileNotFoundException {
+        return FastLineReader.open(compression.wrap(new FileInputStream(file)),
+                charset);
+    }
+
+    /**
+     * Reads the entire file into a String in a single pass
      * 
      * @return a String containing the contents of the file
      * @throws IOException
@@ -127,24 +713,104 @@ public class FileReader {
      * @throws IOException
      */
     public String readLine() throws IOException {
-        lineNumber++;
-        return reader.readLine();
+        final String line = reader.readLine();
+        if(line != null) {
+            lineNumber++;
+        }
+
+        return line;
     }
 
     /**
-     * Reads the rest of the file into a String
+     * Reads a range of lines using the line index
+     * 
+     * @param firstLine
+     *            the number of the first line to read, starting at 1
+     * @param count
+     *            the maximum number of lines to read
+     * @return the lines, which may be fewer than count at the end of the file
+     * @throws IOException
+     */
+    public List<String> readLines(long firstLine, int count)
+            throws IOException {
+        seek(firstLine);
+
+        final List<String> lines = new ArrayList<String>(Math.min(count, 1024));
+        String line;
+        while(lines.size() < count && (line = readLine()) != null) {
+            lines.add(line);
+        }
+
+        return lines;
+    }
+
+    /**
+     * Reads the rest of the file into a String. Line terminators are
+     * normalized to "\n" and the last line is always terminated.
      * 
      * @return a String containing the remaining contents of the file
      * @throws IOException
      */
     public String readRestOfFile() throws IOException {
-        String file = "";
-        String line;
-        while((line = readLine()) != null) {
-            file += line + "\n";
+        // Decoding never yields more chars than there are bytes, so the file
+        // length bounds the result. The extra char leaves room for the newline
+        // added to an unterminated last line. Compressed files are guessed at,
+        // but only up to a few MB so a big one doesn't start with a huge
+        // buffer, and the buffer grows if the guess is too small.
+        final long expected = compression.isCompressed() ? Math.min(file
+                .length() * 4, MAX_COMPRESSED_GUESS) : file.length() + 1;
+        char[] buffer = new char[(int) Math.min(expected, MAX_BUFFER_SIZE)];
+        int length = 0;
+        long lines = 0;
+        boolean skipLF = false;
+
+        while(true) {
+            if(length == MAX_BUFFER_SIZE) {
+                throw new IOException("File is too large to read");
+            }
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer,
+                        (int) Math.min(buffer.length * 2L, MAX_BUFFER_SIZE));
+            }
+
+            final int start = length;
+            final int read = reader.read(buffer, start, buffer.length - start);
+            if(read < 0) {
+                break;
+            }
+
+            // Normalize the freshly read chars in place
+            for(int i = start; i < start + read; i++) {
+                final char c = buffer[i];
+                if(c == '\n' && skipLF) {
+                    skipLF = false;
+                    continue;
+                }
+
+                skipLF = c == '\r';
+                if(c == '\r' || c == '\n') {
+                    buffer[length++] = '\n';
+                    lines++;
+                }
+                else {
+                    buffer[length++] = c;
+                }
+            }
+        }
+
+        if(length > 0 && buffer[length - 1] != '\n') {
+            if(length == MAX_BUFFER_SIZE) {
+                throw new IOException("File is too large to read");
+            }
+            if(length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, length + 1);
+            }
+            buffer[length++] = '\n';
+            lines++;
         }
 
-        return file;
+        lineNumber += lines;
+        return new String(buffer, 0, length);
     }
 
     /**
@@ -154,11 +820,72 @@ public class FileReader {
      */
     public void reopen() throws IOException {
         reader.close();
-        reader = new BufferedReader(new java.io.FileReader(file));
+        reader = open();
+        lineNumber = 0;
+    }
+
+    /**
+     * Moves to a line so that it's the next one readLine returns. Needs a line
+     * index, from buildIndex or setIndex, so it doesn't work on compressed
+     * files.
+     * 
+     * @param line
+     *            the number of the line to move to, starting at 1
+     * @throws IOException
+     */
+    public void seek(long line) throws IOException {
+        if(compression.isCompressed()) {
+            throw new IllegalStateException("Can't seek in a compressed file");
+        }
+        if(index == null) {
+            throw new IllegalStateException("Seeking needs a line index");
+        }
+
+        // Looked up first so a bad line number doesn't leave a stream open
+        final long offset = index.getOffset(line);
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            in.getChannel().position(offset);
+        }
+        catch(final IOException e) {
+            in.close();
+            throw e;
+        }
+        reader.close();
+        reader = FastLineReader.open(in, charset);
+        lineNumber = line - 1;
+    }
+
+    /**
+     * Sets the line index used for seeking, for instance one loaded with
+     * LineIndex.load
+     * 
+     * @param index
+     *            the index of this reader's file
+     */
+    public void setIndex(LineIndex index) {
+        this.index = index;
     }
 
     @Override
     public String toString() {
         return "FileReader(" + file.getAbsolutePath() + ")";
     }
+
+    /**
+     * Visits every line of the file, starting from the beginning, without
+     * creating a String for each one. This doesn't move the position used by
+     * readLine.
+     * 
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     * @throws IllegalArgumentException
+     *             if the reader's charset isn't UTF-8, US-ASCII or ISO-8859-1
+     */
+    public void visitLines(LineVisitor visitor) throws IOException {
+        LineScanner.checkCharset(charset);
+        visitLines(compression.wrap(new FileInputStream(file)), charset,
+                visitor);
+    }
 }
@@ -1,15 +1,139 @@
 package lib.easyjava.io.file;
 
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 /**
  * Simplifies the interface for writing to files
  * 
  * @author Rob Rua (rrua@andrew.cmu.edu)
  */
-public class FileWriter {
+public class FileWriter implements Appendable, Closeable, Flushable {
+    /**
+     * Adds the given content to the end of the file, leaving what's already
+     * there in place
+     * 
+     * @param targetFile
+     *            the file to add to
+     * @param content
+     *            the content to add to the file
+     * @throws IOException
+     */
+    public static void appendFile(File targetFile, String content)
+            throws IOException {
+        final FileWriter writer = new FileWriter(targetFile, true);
+        writer.write(content);
+        writer.close();
+    }
+
+    /**
+     * Adds the given content to the end of the file, leaving what's already
+     * there in place
+     * 
+     * @param targetFilePath
+     *            the path of the file to add to
+     * @param content
+     *            the content to add to the file
+     * @throws IOException
+     */
+    public static void appendFile(String targetFilePath, String content)
+            throws IOException {
+        appendFile(new File(targetFilePath), content);
+    }
+
+    /**
+     * Writes the given files one after another into the target file. The
+     * bytes are copied by the operating system without being decoded. A
+     * source that shrinks while it's being copied is copied as far as it goes.
+     * 
+     * @param targetFile
+     *            the file to write to
+     * @param sourceFiles
+     *            the files to copy into the target, in order
+     * @throws IOException
+     */
+    public static void concatenateFiles(File targetFile, File... sourceFiles)
+            throws IOException {
+        final FileChannel out = FileChannel.open(targetFile.toPath(),
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            for(final File source : sourceFiles) {
+                final FileChannel in = FileChannel.open(source.toPath(),
+                        StandardOpenOption.READ);
+                try {
+                    final long size = in.size();
+                    for(long done = 0; done < size;) {
+                        final long count = in.transferTo(done, size - done,
+                                out);
+                        if(count == 0) {
+                            // The source has shrunk
+                            break;
+                        }
+                        done += count;
+                    }
+                }
+                finally {
+                    in.close();
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Copies a file. The bytes are copied by the operating system without
+     * being decoded.
+     * 
+     * @param sourceFile
+     *            the file to copy
+     * @param targetFile
+     *            the file to write to
+     * @throws IOException
+     */
+    public static void copyFile(File sourceFile, File targetFile)
+            throws IOException {
+        concatenateFiles(targetFile, sourceFile);
+    }
+
+    private static FlushPolicy defaultFlushPolicy(Compression compression) {
+        // Flushing a compressed stream after every write ruins the ratio
+        return compression.isCompressed() ? FlushPolicy.ON_CLOSE
+                : FlushPolicy.ALWAYS;
+    }
+
+    private static void syncDirectory(File directory) {
+        // Makes the rename itself durable. Not every platform lets a
+        // directory be opened, in which case there's nothing more to do.
+        try {
+            final FileChannel channel = FileChannel.open(directory.toPath(),
+                    StandardOpenOption.READ);
+            try {
+                channel.force(true);
+            }
+            finally {
+                channel.close();
+            }
+        }
+        catch(final IOException e) {
+            return;
+        }
+    }
+
     /**
      * Writes to the given file with only the content given
      * 
@@ -40,16 +164,230 @@ public class FileWriter {
         writeFile(new File(targetFilePath), content);
     }
 
-    private File file;
+    /**
+     * Writes to the given file with only the content given. The content goes
+     * into a temporary file which is then renamed over the target, so readers
+     * see either the old file or the new one and never a partial write.
+     * 
+     * @param targetFile
+     *            the file to write to
+     * @param content
+     *            the content to put in the file
+     * @param sync
+     *            whether to force the content onto the storage device before
+     *            renaming, so it survives a crash as well
+     * @throws IOException
+     */
+    public static void writeFileAtomically(File targetFile, String content,
+            boolean sync) throws IOException {
+        final File directory = targetFile.getAbsoluteFile().getParentFile();
+        // The dots keep the prefix at the 3 chars createTempFile needs, even
+        // for a one letter name. Files.createTempFile would make the file,
+        // and so the target, readable only by its owner.
+        final File temp = File.createTempFile("." + targetFile.getName()
+                + ".", ".tmp", directory);
+
+        boolean done = false;
+        try {
+            final Writer writer = new OutputStreamWriter(Compression.forFile(
+                    targetFile).wrap(new FileOutputStream(temp)));
+            try {
+                writer.write(content);
+            }
+            finally {
+                writer.close();
+            }
+
+            if(sync) {
+                final FileChannel channel = FileChannel.open(temp.toPath(),
+                        StandardOpenOption.WRITE);
+                try {
+                    channel.force(true);
+                }
+                finally {
+                    channel.close();
+                }
+            }
+
+            try {
+                Files.move(temp.toPath(), targetFile.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            catch(final AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), targetFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+            }
+            done = true;
+
+            if(sync) {
+                syncDirectory(directory);
+            }
+        }
+        finally {
+            if(!done) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes to the given file with only the content given, replacing it
+     * atomically
+     * 
+     * @param targetFilePath
+     *            the path of the file to write to
+     * @param content
+     *            the content to put in the file
+     * @param sync
+     *            whether to force the content onto the storage device before
+     *            renaming, so it survives a crash as well
+     * @throws IOException
+     */
+    public static void writeFileAtomically(String targetFilePath,
+            String content, boolean sync) throws IOException {
+        writeFileAtomically(new File(targetFilePath), content, sync);
+    }
+
+    private final boolean append;
+    private final Charset charset;
+    private final Compression compression;
+    private final File file;
+    private final FlushPolicy flushPolicy;
+    private long lastFlush;
+    private char[] scratch;
+    private long unflushed;
     protected BufferedWriter writer;
 
     /**
+     * Compresses the file if its extension calls for it (see
+     * Compression.forFile). Compressed files are flushed on close, others
+     * after every write.
+     * 
      * @param file
      *            the file to write to
      * @throws IOException
      */
     public FileWriter(File file) throws IOException {
-        writer = new BufferedWriter(new java.io.FileWriter(file));
+        this(file, false);
+    }
+
+    /**
+     * Compresses the file if its extension calls for it (see
+     * Compression.forFile). Appending to a gzip file adds a new gzip member
+     * to it. Compressed files are flushed on close, others after every write.
+     * 
+     * @param file
+     *            the file to write to
+     * @param append
+     *            whether to add to the end of the file rather than replacing
+     *            its contents
+     * @throws IOException
+     */
+    public FileWriter(File file, boolean append) throws IOException {
+        this(file, append, defaultFlushPolicy(Compression.forFile(file)));
+    }
+
+    /**
+     * Compresses the file if its extension calls for it (see
+     * Compression.forFile)
+     * 
+     * @param file
+     *            the file to write to
+     * @param append
+     *            whether to add to the end of the file rather than replacing
+     *            its contents
+     * @param flushPolicy
+     *            when to flush written text to the file
+     * @throws IOException
+     */
+    public FileWriter(File file, boolean append, FlushPolicy flushPolicy)
+            throws IOException {
+        this(file, append, flushPolicy, Compression.forFile(file));
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param append
+     *            whether to add to the end of the file rather than replacing
+     *            its contents
+     * @param flushPolicy
+     *            when to flush written text to the file. Every flush of a
+     *            compressed file costs some compression.
+     * @param compression
+     *            how to compress the file
+     * @throws IOException
+     */
+    public FileWriter(File file, boolean append, FlushPolicy flushPolicy,
+            Compression compression) throws IOException {
+        this(file, append, flushPolicy, compression, Charset.defaultCharset());
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param append
+     *            whether to add to the end of the file rather than replacing
+     *            its contents
+     * @param flushPolicy
+     *            when to flush written text to the file. Every flush of a
+     *            compressed file costs some compression.
+     * @param compression
+     *            how to compress the file
+     * @param charset
+     *            the charset to encode the file in
+     * @throws IOException
+     */
+    public FileWriter(File file, boolean append, FlushPolicy flushPolicy,
+            Compression compression, Charset charset) throws IOException {
+        this.file = file;
+        this.append = append;
+        this.flushPolicy = flushPolicy;
+        this.compression = compression;
+        this.charset = charset;
+        writer = open();
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * Compresses the file if its extension calls for it (see
+     * Compression.forFile). Compressed files are flushed on close, others
+     * after every write.
+     * 
+     * @param file
+     *            the file to write to
+     * @param charset
+     *            the charset to encode the file in
+     * @throws IOException
+     */
+    public FileWriter(File file, Charset charset) throws IOException {
+        this(file, false, defaultFlushPolicy(Compression.forFile(file)),
+                Compression.forFile(file), charset);
+    }
+
+    /**
+     * Compressed files are flushed on close, others after every write
+     * 
+     * @param file
+     *            the file to write to
+     * @param compression
+     *            how to compress the file
+     * @throws IOException
+     */
+    public FileWriter(File file, Compression compression) throws IOException {
+        this(file, false, defaultFlushPolicy(compression), compression);
+    }
+
+    /**
+     * @param file
+     *            the file to write to
+     * @param flushPolicy
+     *            when to flush written text to the file
+     * @throws IOException
+     */
+    public FileWriter(File file, FlushPolicy flushPolicy) throws IOException {
+        this(file, false, flushPolicy);
     }
 
     /**
@@ -61,11 +399,141 @@ public class FileWriter {
         this(new File(filePath));
     }
 
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param append
+     *            whether to add to the end of the file rather than replacing
+     *            its contents
+     * @throws IOException
+     */
+    public FileWriter(String filePath, boolean append) throws IOException {
+        this(new File(filePath), append);
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param charset
+     *            the charset to encode the file in
+     * @throws IOException
+     */
+    public FileWriter(String filePath, Charset charset) throws IOException {
+        this(new File(filePath), charset);
+    }
+
+    /**
+     * Compressed files are flushed on close, others after every write
+     * 
+     * @param filePath
+     *            the path of the file to write to
+     * @param compression
+     *            how to compress the file
+     * @throws IOException
+     */
+    public FileWriter(String filePath, Compression compression)
+            throws IOException {
+        this(new File(filePath), compression);
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to write to
+     * @param flushPolicy
+     *            when to flush written text to the file
+     * @throws IOException
+     */
+    public FileWriter(String filePath, FlushPolicy flushPolicy)
+            throws IOException {
+        this(new File(filePath), flushPolicy);
+    }
+
+    /**
+     * Writes a single char into the file
+     * 
+     * @param c
+     *            the char to write to the file
+     * @return this writer
+     * @throws IOException
+     */
+    @Override
+    public FileWriter append(char c) throws IOException {
+        writer.write(c);
+        written(1);
+        return this;
+    }
+
+    /**
+     * Writes the given text into the file without converting it to a String
+     * first
+     * 
+     * @param text
+     *            the text to write to the file
+     * @return this writer
+     * @throws IOException
+     */
+    @Override
+    public FileWriter append(CharSequence text) throws IOException {
+        if(text == null) {
+            write("null");
+        }
+        else {
+            append(text, 0, text.length());
+        }
+
+        return this;
+    }
+
+    /**
+     * Writes part of the given text into the file without converting it to a
+     * String first
+     * 
+     * @param text
+     *            the text to write to the file
+     * @param start
+     *            the index of the first char to write
+     * @param end
+     *            the index just past the last char to write
+     * @return this writer
+     * @throws IOException
+     */
+    @Override
+    public FileWriter append(CharSequence text, int start, int end)
+            throws IOException {
+        if(text == null) {
+            return append("null", start, end);
+        }
+        if(start < 0 || end > text.length() || start > end) {
+            throw new IndexOutOfBoundsException(start + ", " + end);
+        }
+
+        if(text instanceof String) {
+            writer.write((String) text, start, end - start);
+        }
+        else {
+            if(scratch == null) {
+                scratch = new char[1024];
+            }
+
+            for(int i = start; i < end; i += scratch.length) {
+                final int count = Math.min(scratch.length, end - i);
+                for(int j = 0; j < count; j++) {
+                    scratch[j] = text.charAt(i + j);
+                }
+                writer.write(scratch, 0, count);
+            }
+        }
+        written(end - start);
+
+        return this;
+    }
+
     /**
      * Closes the writer. Call this when you're done with it.
      * 
      * @throws IOException
      */
+    @Override
     public void close() throws IOException {
         writer.close();
     }
@@ -93,6 +561,24 @@ public class FileWriter {
         return true;
     }
 
+    /**
+     * Writes anything buffered so far into the file
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        flushWriter();
+    }
+
+    private void flushWriter() throws IOException {
+        // The flush policy comes through here rather than flush, so a
+        // subclass's flush is never called from inside one of its own writes
+        writer.flush();
+        unflushed = 0;
+        lastFlush = System.currentTimeMillis();
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -101,14 +587,21 @@ public class FileWriter {
         return result;
     }
 
+    private BufferedWriter open() throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(compression.wrap(
+                new FileOutputStream(file, append)), charset));
+    }
+
     /**
-     * Resets the current location in the file to the beginning
+     * Reopens the file. In append mode writing carries on from the end of the
+     * file, otherwise the file is emptied and writing starts at the beginning.
      * 
      * @throws IOException
      */
     public void reopen() throws IOException {
         writer.close();
-        writer = new BufferedWriter(new java.io.FileWriter(file));
+        writer = open();
+        unflushed = 0;
     }
 
     @Override
@@ -116,6 +609,22 @@ public class FileWriter {
         return "FileWriter(" + file.getAbsolutePath() + ")";
     }
 
+    /**
+     * Writes part of the given char array into the file
+     * 
+     * @param chars
+     *            the chars to write to the file
+     * @param offset
+     *            the index of the first char to write
+     * @param length
+     *            the number of chars to write
+     * @throws IOException
+     */
+    public void write(char[] chars, int offset, int length) throws IOException {
+        writer.write(chars, offset, length);
+        written(length);
+    }
+
     /**
      * Writes the given string into the file
      * 
@@ -125,6 +634,13 @@ public class FileWriter {
      */
     public void write(String text) throws IOException {
         writer.write(text);
-        writer.flush();
+        written(text.length());
+    }
+
+    private void written(int count) throws IOException {
+        unflushed += count;
+        if(flushPolicy.shouldFlush(unflushed, lastFlush)) {
+            flushWriter();
+        }
     }
 }
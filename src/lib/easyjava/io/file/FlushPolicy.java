@@ -0,0 +1,113 @@
+package lib.easyjava.io.file;
+
+/**
+ * Decides when a FileWriter flushes what's been written to it. Flushing less
+ * often batches small writes into fewer system calls.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class FlushPolicy {
+    /**
+     * Flush after every write
+     */
+    public static final FlushPolicy ALWAYS = new FlushPolicy(0, -1);
+
+    /**
+     * Never flush explicitly. Text reaches the file when the buffer fills up,
+     * when flush is called, or when the writer is closed.
+     */
+    public static final FlushPolicy ON_CLOSE = new FlushPolicy(-1, -1);
+
+    /**
+     * Flushes once enough text has been written since the last flush
+     * 
+     * @param chars
+     *            the number of chars to write between flushes
+     * @return the policy
+     */
+    public static FlushPolicy everyChars(long chars) {
+        return new FlushPolicy(chars, -1);
+    }
+
+    /**
+     * Flushes on the first write after enough time has passed since the last
+     * flush. Nothing is flushed while the writer is idle.
+     * 
+     * @param millis
+     *            the number of milliseconds between flushes
+     * @return the policy
+     */
+    public static FlushPolicy everyMillis(long millis) {
+        return new FlushPolicy(-1, millis);
+    }
+
+    private final long chars;
+    private final long millis;
+
+    private FlushPolicy(long chars, long millis) {
+        this.chars = chars;
+        this.millis = millis;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof FlushPolicy)) {
+            return false;
+        }
+        final FlushPolicy other = (FlushPolicy) obj;
+        if(chars != other.chars) {
+            return false;
+        }
+        if(millis != other.millis) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (chars ^ chars >>> 32);
+        result = prime * result + (int) (millis ^ millis >>> 32);
+        return result;
+    }
+
+    /**
+     * Checks whether a writer should flush now
+     * 
+     * @param unflushed
+     *            the number of chars written since the last flush
+     * @param lastFlush
+     *            the time of the last flush, in milliseconds
+     * @return whether to flush
+     */
+    boolean shouldFlush(long unflushed, long lastFlush) {
+        if(chars >= 0 && unflushed >= chars) {
+            return true;
+        }
+
+        return millis >= 0 && System.currentTimeMillis() - lastFlush >= millis;
+    }
+
+    @Override
+    public String toString() {
+        if(chars == 0) {
+            return "FlushPolicy(always)";
+        }
+        if(chars > 0) {
+            return "FlushPolicy(every " + chars + " chars)";
+        }
+        if(millis >= 0) {
+            return "FlushPolicy(every " + millis + " ms)";
+        }
+
+        return "FlushPolicy(on close)";
+    }
+}
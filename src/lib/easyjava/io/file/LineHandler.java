@@ -0,0 +1,21 @@
+package lib.easyjava.io.file;
+
+import java.io.IOException;
+
+/**
+ * Receives lines read from a file along with their line numbers
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public interface LineHandler {
+    /**
+     * Handles one line of the file
+     * 
+     * @param line
+     *            the line, without its terminator
+     * @param lineNumber
+     *            the number of the line in the file, starting at 1
+     * @throws IOException
+     */
+    public void handle(String line, long lineNumber) throws IOException;
+}
@@ -0,0 +1,204 @@
+package lib.easyjava.io.file;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * The byte offset of every line in a file, so a reader can jump straight to
+ * any line. Indexes can be saved to a sidecar file and loaded back rather
+ * than rescanning the file.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class LineIndex {
+    private static final int MAGIC = 0x454a4c49;
+    private static final int VERSION = 1;
+
+    /**
+     * Scans a file to build an index of its lines
+     * 
+     * @param file
+     *            the file to index
+     * @return the index
+     * @throws IOException
+     */
+    public static LineIndex build(File file) throws IOException {
+        final long lastModified = file.lastModified();
+        final LineScanner scanner = new LineScanner(new FileInputStream(file),
+                0, Charset.defaultCharset());
+
+        long[] offsets = new long[1024];
+        int count = 0;
+        long end = 0;
+        try {
+            while(scanner.next()) {
+                if(count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = scanner.lineOffset();
+                end = scanner.nextOffset();
+            }
+        }
+        finally {
+            scanner.close();
+        }
+
+        return new LineIndex(Arrays.copyOf(offsets, count), end, lastModified);
+    }
+
+    /**
+     * Loads an index saved with save
+     * 
+     * @param indexFile
+     *            the file the index was saved to
+     * @return the index
+     * @throws IOException
+     */
+    public static LineIndex load(File indexFile) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(indexFile), 64 * 1024));
+        try {
+            if(in.readInt() != MAGIC) {
+                throw new IOException("Not a line index: " + indexFile);
+            }
+            final int version = in.readInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported line index version "
+                        + version + ": " + indexFile);
+            }
+
+            final long length = in.readLong();
+            final long lastModified = in.readLong();
+            final long[] offsets = new long[in.readInt()];
+            for(int i = 0; i < offsets.length; i++) {
+                offsets[i] = in.readLong();
+            }
+
+            return new LineIndex(offsets, length, lastModified);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    private final long lastModified;
+    private final long length;
+    private final long[] offsets;
+
+    private LineIndex(long[] offsets, long length, long lastModified) {
+        this.offsets = offsets;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof LineIndex)) {
+            return false;
+        }
+        final LineIndex other = (LineIndex) obj;
+        if(lastModified != other.lastModified) {
+            return false;
+        }
+        if(length != other.length) {
+            return false;
+        }
+        if(!Arrays.equals(offsets, other.offsets)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of lines in the indexed file
+     * 
+     * @return the number of lines
+     */
+    public int getLineCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Gets the byte offset a line starts at. The line after the last one
+     * starts at the end of the file.
+     * 
+     * @param lineNumber
+     *            the number of the line, starting at 1
+     * @return the offset of the line
+     */
+    public long getOffset(long lineNumber) {
+        if(lineNumber < 1 || lineNumber > offsets.length + 1) {
+            throw new IndexOutOfBoundsException("No line " + lineNumber);
+        }
+
+        return lineNumber > offsets.length ? length
+                : offsets[(int) lineNumber - 1];
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int) (lastModified ^ lastModified >>> 32);
+        result = prime * result + (int) (length ^ length >>> 32);
+        result = prime * result + Arrays.hashCode(offsets);
+        return result;
+    }
+
+    /**
+     * Checks whether the index still matches a file. This compares the file's
+     * length and modification time with those it had when it was indexed.
+     * 
+     * @param file
+     *            the indexed file
+     * @return whether the index is up to date
+     */
+    public boolean isCurrent(File file) {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Saves the index so it can be loaded back later
+     * 
+     * @param indexFile
+     *            the file to save the index to
+     * @throws IOException
+     */
+    public void save(File indexFile) throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(indexFile),
+                        64 * 1024));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.writeInt(offsets.length);
+            for(final long offset : offsets) {
+                out.writeLong(offset);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LineIndex(" + offsets.length + " lines)";
+    }
+}
@@ -0,0 +1,224 @@
+package lib.easyjava.io.file;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * Finds lines by scanning raw bytes, keeping track of the byte offset of each
+ * one. Lines are only decoded on request, into a reused LineView. The charset
+ * must encode line terminators as single bytes.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class LineScanner {
+    /**
+     * Checks that the lines of a charset can be found by scanning its bytes
+     * 
+     * @param charset
+     *            the charset
+     * @throws IllegalArgumentException
+     *             if it doesn't encode line terminators as single bytes
+     */
+    static void checkCharset(Charset charset) {
+        if(!FastLineReader.isAsciiCompatible(charset)) {
+            throw new IllegalArgumentException("Can't scan lines in "
+                    + charset);
+        }
+    }
+
+    private byte[] buffer;
+    private long bufferOffset;
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+    private final CharsetDecoder decoder;
+    private int end;
+    private boolean eof;
+    private InputStream in;
+    private int lineEnd;
+    private int lineStart;
+    private int scan;
+    private int start;
+
+    /**
+     * @param in
+     *            the stream to scan
+     * @param offset
+     *            the byte offset in the file that the stream starts at
+     * @param charset
+     *            the charset to decode lines with
+     * @throws IllegalArgumentException
+     *             if the charset doesn't encode line terminators as single
+     *             bytes
+     */
+    LineScanner(InputStream in, long offset, Charset charset) {
+        checkCharset(charset);
+        this.in = in;
+        bufferOffset = offset;
+        buffer = new byte[64 * 1024];
+        bytes = ByteBuffer.wrap(buffer);
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    void close() throws IOException {
+        in.close();
+    }
+
+    /**
+     * Starts scanning another stream, keeping the buffer and decoder
+     * 
+     * @param in
+     *            the stream to scan
+     * @param offset
+     *            the byte offset in the file that the stream starts at
+     */
+    void reset(InputStream in, long offset) {
+        this.in = in;
+        bufferOffset = offset;
+        end = 0;
+        eof = false;
+        lineEnd = 0;
+        lineStart = 0;
+        scan = 0;
+        start = 0;
+    }
+
+    /**
+     * Checks whether the current line's terminator has been seen. A trailing
+     * '\r' at the end of the stream doesn't count, as it could be the first
+     * half of a "\r\n" that hasn't been written yet.
+     */
+    boolean complete() {
+        if(lineEnd == start) {
+            return false;
+        }
+
+        return !(eof && start == end && buffer[lineEnd] == '\r');
+    }
+
+    /**
+     * Decodes the current line into the view
+     */
+    void decode(LineView view) {
+        final int length = lineEnd - lineStart;
+
+        // ASCII decodes the same way in every charset this class supports
+        boolean ascii = true;
+        for(int i = lineStart; i < lineEnd; i++) {
+            if(buffer[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+
+        if(ascii) {
+            view.ensureCapacity(length);
+            final char[] target = view.chars;
+            for(int i = 0; i < length; i++) {
+                target[i] = (char) buffer[lineStart + i];
+            }
+            view.length = length;
+            return;
+        }
+
+        final double maxChars = decoder.maxCharsPerByte();
+        view.ensureCapacity((int) (length * maxChars) + 1);
+        if(chars == null || chars.array() != view.chars) {
+            chars = CharBuffer.wrap(view.chars);
+        }
+
+        bytes.limit(lineEnd).position(lineStart);
+        chars.clear();
+        decoder.reset();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        view.length = chars.position();
+    }
+
+    /**
+     * Gets the byte offset in the file of the current line
+     */
+    long lineOffset() {
+        return bufferOffset + lineStart;
+    }
+
+    /**
+     * Gets the byte offset in the file just past the current line's terminator
+     */
+    long nextOffset() {
+        return bufferOffset + start;
+    }
+
+    /**
+     * Moves to the next line
+     * 
+     * @return false if there are no more lines
+     */
+    boolean next() throws IOException {
+        while(true) {
+            while(scan < end && buffer[scan] != '\n' && buffer[scan] != '\r') {
+                scan++;
+            }
+
+            if(scan < end) {
+                // Need the byte after a '\r' to tell if it's part of "\r\n"
+                if(buffer[scan] == '\r' && scan + 1 == end && !eof) {
+                    fill();
+                    continue;
+                }
+
+                lineStart = start;
+                lineEnd = scan;
+                if(buffer[scan] == '\r' && scan + 1 < end
+                        && buffer[scan + 1] == '\n') {
+                    scan++;
+                }
+                start = ++scan;
+                return true;
+            }
+
+            if(eof) {
+                if(start == end) {
+                    return false;
+                }
+
+                lineStart = start;
+                lineEnd = end;
+                start = scan = end;
+                return true;
+            }
+
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        // Keep the partial line at the front, growing if it fills the buffer
+        if(start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, end - start);
+            bufferOffset += start;
+            end -= start;
+            scan -= start;
+            start = 0;
+        }
+        if(end == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            bytes = ByteBuffer.wrap(buffer);
+        }
+
+        final int read = in.read(buffer, end, buffer.length - end);
+        if(read < 0) {
+            eof = true;
+        }
+        else {
+            end += read;
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package lib.easyjava.io.file;
+
+import java.util.Arrays;
+
+/**
+ * A reusable, mutable CharSequence holding one decoded line
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class LineView implements CharSequence {
+    char[] chars;
+    int length;
+
+    LineView() {
+        chars = new char[256];
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+
+        return chars[index];
+    }
+
+    void ensureCapacity(int capacity) {
+        if(chars.length < capacity) {
+            chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(start + ", " + end);
+        }
+
+        return new String(chars, start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(chars, 0, length);
+    }
+}
@@ -0,0 +1,27 @@
+package lib.easyjava.io.file;
+
+import java.io.IOException;
+
+/**
+ * Visits the lines of a file without a String being created for each one
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public interface LineVisitor {
+    /**
+     * Visits one line of the file. The line is a view over a buffer that gets
+     * reused for the next line, so copy it (with toString) to keep it.
+     * 
+     * @param line
+     *            the line, without its terminator
+     * @param lineNumber
+     *            the number of the line in the file, starting at 1
+     * @param byteOffset
+     *            the offset of the first byte of the line in the file, or
+     *            in the decompressed data if the file is compressed
+     * @return whether to keep visiting lines
+     * @throws IOException
+     */
+    public boolean visit(CharSequence line, long lineNumber, long byteOffset)
+            throws IOException;
+}
@@ -0,0 +1,469 @@
+package lib.easyjava.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory mappings rather than a heap buffer. Lines are
+ * decoded straight out of the mapped pages, so repeated scans of a file are
+ * served by the page cache. Files larger than 2GB are mapped as a chain of
+ * segments. visitLines hands each line out as a reused view, so scanning a
+ * file that way creates no Strings at all.
+ * 
+ * Line terminators are found by scanning bytes, so the file's charset must
+ * encode them as single bytes (UTF-8 and ISO-8859-1 do, UTF-16 does not).
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class MappedFileReader {
+    /**
+     * A CharSequence over a range of the mapping, one char per byte
+     */
+    private class MappedCharSequence implements CharSequence {
+        private final long end;
+        private final long start;
+
+        private MappedCharSequence(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if(index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException(Integer.toString(index));
+            }
+
+            return (char) (byteAt(start + index) & 0xff);
+        }
+
+        @Override
+        public int length() {
+            return (int) (end - start);
+        }
+
+        @Override
+        public CharSequence subSequence(int begin, int finish) {
+            if(begin < 0 || finish > length() || begin > finish) {
+                throw new IndexOutOfBoundsException(begin + ", " + finish);
+            }
+
+            return new MappedCharSequence(start + begin, start + finish);
+        }
+
+        @Override
+        public String toString() {
+            final char[] chars = new char[length()];
+            for(int i = 0; i < chars.length; i++) {
+                chars[i] = charAt(i);
+            }
+
+            return new String(chars);
+        }
+    }
+
+    // Each segment maps SEGMENT_OVERLAP bytes past the start of the next one,
+    // so any line shorter than the overlap can be decoded from one buffer
+    private static final int SEGMENT_OVERLAP = 1 << 20;
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+
+    /**
+     * Reads the entire file in as a String
+     * 
+     * @param file
+     *            the file to read
+     * @return a String containing the contents of the file
+     * @throws IOException
+     */
+    public static String readFile(File file) throws IOException {
+        final MappedFileReader reader = new MappedFileReader(file);
+        final String text = reader.readFile();
+        reader.close();
+
+        return text;
+    }
+
+    /**
+     * Reads the entire file in as a String
+     * 
+     * @param filePath
+     *            the path of the file to read
+     * @return a String containing the contents of the file
+     * @throws IOException
+     */
+    public static String readFile(String filePath) throws IOException {
+        return readFile(new File(filePath));
+    }
+
+    private final boolean asciiCompatible;
+    private final FileChannel channel;
+    private CharBuffer chars;
+    private final CharsetDecoder decoder;
+    private final File file;
+    private final long length;
+    private final LineView line;
+    private long lineNumber;
+    private long position;
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Reads the file in the platform's default charset
+     * 
+     * @param file
+     *            the file to read with this reader
+     * @throws IOException
+     */
+    public MappedFileReader(File file) throws IOException {
+        this(file, Charset.defaultCharset());
+    }
+
+    /**
+     * @param file
+     *            the file to read with this reader
+     * @param charset
+     *            the charset the file is encoded in
+     * @throws IOException
+     */
+    public MappedFileReader(File file, Charset charset) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        length = channel.size();
+
+        final long count = length + SEGMENT_SIZE - 1 >>> SEGMENT_SHIFT;
+        segments = new MappedByteBuffer[(int) count];
+        for(int i = 0; i < segments.length; i++) {
+            final long start = (long) i << SEGMENT_SHIFT;
+            final long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, length
+                    - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                    size);
+        }
+
+        asciiCompatible = FastLineReader.isAsciiCompatible(charset);
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        line = new LineView();
+        chars = CharBuffer.wrap(line.chars);
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to read with this reader
+     * @throws IOException
+     */
+    public MappedFileReader(String filePath) throws IOException {
+        this(new File(filePath));
+    }
+
+    /**
+     * @param filePath
+     *            the path of the file to read with this reader
+     * @param charset
+     *            the charset the file is encoded in
+     * @throws IOException
+     */
+    public MappedFileReader(String filePath, Charset charset)
+            throws IOException {
+        this(new File(filePath), charset);
+    }
+
+    /**
+     * Gets a read-only ByteBuffer view of the whole file
+     * 
+     * @return the contents of the file
+     * @throws IOException
+     */
+    public ByteBuffer asByteBuffer() throws IOException {
+        if(length > Integer.MAX_VALUE) {
+            throw new IllegalStateException(
+                    "File is too large for a single buffer, use slice instead");
+        }
+
+        return slice(0, (int) length);
+    }
+
+    /**
+     * Gets a CharSequence view of the whole file, treating each byte as one
+     * char. This is only a faithful decoding for ASCII or ISO-8859-1 content.
+     * 
+     * @return the contents of the file
+     */
+    public CharSequence asCharSequence() {
+        if(length > Integer.MAX_VALUE) {
+            throw new IllegalStateException(
+                    "File is too large for a single CharSequence");
+        }
+
+        return new MappedCharSequence(0, length);
+    }
+
+    private byte byteAt(long index) {
+        final int segment = (int) (index >>> SEGMENT_SHIFT);
+        final long base = (long) segment << SEGMENT_SHIFT;
+        return segments[segment].get((int) (index - base));
+    }
+
+    /**
+     * Closes the reader. Call this when you're done with it.
+     * 
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void decode(ByteBuffer bytes) {
+        if(asciiCompatible) {
+            // Copy pure ASCII lines straight across, skipping the decoder
+            line.ensureCapacity(bytes.remaining());
+            final char[] ascii = line.chars;
+            final int start = bytes.position();
+            final int end = bytes.limit();
+            int i = start;
+            while(i < end && bytes.get(i) >= 0) {
+                ascii[i - start] = (char) bytes.get(i);
+                i++;
+            }
+            if(i == end) {
+                line.length = end - start;
+                return;
+            }
+        }
+
+        line.ensureCapacity((int) (bytes.remaining() * (double) decoder
+                .maxCharsPerByte()) + 1);
+        if(chars.array() != line.chars) {
+            chars = CharBuffer.wrap(line.chars);
+        }
+
+        decoder.reset();
+        chars.clear();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        line.length = chars.position();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof MappedFileReader)) {
+            return false;
+        }
+        final MappedFileReader other = (MappedFileReader) obj;
+        if(file == null) {
+            if(other.file != null) {
+                return false;
+            }
+        }
+        else if(!file.equals(other.file)) {
+            return false;
+        }
+        if(lineNumber != other.lineNumber) {
+            return false;
+        }
+        if(position != other.position) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (file == null ? 0 : file.hashCode());
+        result = prime * result + (int) (lineNumber ^ lineNumber >>> 32);
+        result = prime * result + (int) (position ^ position >>> 32);
+        return result;
+    }
+
+    /**
+     * Gets the length of the file in bytes
+     * 
+     * @return the length of the file
+     */
+    public long length() {
+        return length;
+    }
+
+    // Decodes the next line into the view, or returns false at the end
+    private boolean nextLine() throws IOException {
+        if(position >= length) {
+            return false;
+        }
+
+        final int segment = (int) (position >>> SEGMENT_SHIFT);
+        final ByteBuffer buffer = segments[segment].duplicate();
+        final long base = (long) segment << SEGMENT_SHIFT;
+        final int start = (int) (position - base);
+
+        int end = start;
+        while(end < buffer.limit()) {
+            final byte b = buffer.get(end);
+            if(b == '\n' || b == '\r') {
+                break;
+            }
+            end++;
+        }
+
+        if(end < buffer.limit() || base + end == length) {
+            buffer.position(start).limit(end);
+            decode(buffer);
+            position = base + end;
+        }
+        else {
+            // The line runs past the overlap into the next segment
+            long last = base + end;
+            while(last < length) {
+                final byte b = byteAt(last);
+                if(b == '\n' || b == '\r') {
+                    break;
+                }
+                last++;
+            }
+            if(last - position > Integer.MAX_VALUE) {
+                throw new IOException("Line is too long to read: "
+                        + lineNumber);
+            }
+
+            decode(slice(position, (int) (last - position)));
+            position = last;
+        }
+
+        if(position < length && byteAt(position++) == '\r'
+                && position < length && byteAt(position) == '\n') {
+            position++;
+        }
+        lineNumber++;
+
+        return true;
+    }
+
+    /**
+     * Reads the entire file into a String
+     * 
+     * @return a String containing the contents of the file
+     * @throws IOException
+     */
+    public String readFile() throws IOException {
+        reopen();
+        return readRestOfFile();
+    }
+
+    /**
+     * Reads a single line of the file
+     * 
+     * @return a String containing the next line in the file
+     * @throws IOException
+     */
+    public String readLine() throws IOException {
+        return nextLine() ? line.toString() : null;
+    }
+
+    /**
+     * Reads the rest of the file into a String. Line terminators are
+     * normalized to "\n" and the last line is always terminated.
+     * 
+     * @return a String containing the remaining contents of the file
+     * @throws IOException
+     */
+    public String readRestOfFile() throws IOException {
+        final StringBuilder text = new StringBuilder((int) Math.min(length
+                - position + 1, Integer.MAX_VALUE - 8));
+        while(nextLine()) {
+            text.append(line.chars, 0, line.length).append('\n');
+        }
+
+        return text.toString();
+    }
+
+    /**
+     * Returns to the beginning of the file. The mapping is kept, so this is
+     * just a position reset.
+     * 
+     * @throws IOException
+     */
+    public void reopen() throws IOException {
+        position = 0;
+        lineNumber = 0;
+    }
+
+    /**
+     * Gets a read-only ByteBuffer view of part of the file
+     * 
+     * @param start
+     *            the byte offset to start the view at
+     * @param size
+     *            the number of bytes in the view
+     * @return the requested part of the file
+     * @throws IOException
+     */
+    public ByteBuffer slice(long start, int size) throws IOException {
+        if(start < 0 || size < 0 || start + size > length) {
+            throw new IndexOutOfBoundsException(start + ", " + size);
+        }
+
+        final int segment = (int) (start >>> SEGMENT_SHIFT);
+        final long base = (long) segment << SEGMENT_SHIFT;
+        if(segment < segments.length
+                && start + size <= base + segments[segment].capacity()) {
+            final ByteBuffer buffer = segments[segment].duplicate();
+            buffer.position((int) (start - base)).limit(
+                    (int) (start - base) + size);
+            return buffer.slice().asReadOnlyBuffer();
+        }
+
+        // Spans a segment boundary, so map the range on its own
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, size)
+                .asReadOnlyBuffer();
+    }
+
+    @Override
+    public String toString() {
+        return "MappedFileReader(" + file.getAbsolutePath() + ")";
+    }
+
+    /**
+     * Visits every line of the file without creating a String for each one.
+     * This doesn't move the position used by readLine.
+     * 
+     * @param visitor
+     *            the visitor to give each line to
+     * @throws IOException
+     */
+    public void visitLines(LineVisitor visitor) throws IOException {
+        final long readPosition = position;
+        final long readLineNumber = lineNumber;
+        position = 0;
+        lineNumber = 0;
+
+        try {
+            long offset = position;
+            while(nextLine()) {
+                if(!visitor.visit(line, lineNumber, offset)) {
+                    break;
+                }
+                offset = position;
+            }
+        }
+        finally {
+            position = readPosition;
+            lineNumber = readLineNumber;
+        }
+    }
+}
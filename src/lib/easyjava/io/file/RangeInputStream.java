@@ -0,0 +1,87 @@
+package lib.easyjava.io.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An InputStream over a byte range of a file. Uses positional reads, so many
+ * of these can read the same file at once.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class RangeInputStream extends InputStream {
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+
+    /**
+     * @param file
+     *            the file to read
+     * @param start
+     *            the offset of the first byte to read
+     * @param end
+     *            the offset just past the last byte to read
+     * @throws IOException
+     */
+    RangeInputStream(File file, long start, long end) throws IOException {
+        this(FileChannel.open(file.toPath(), StandardOpenOption.READ), start,
+                end);
+    }
+
+    /**
+     * @param channel
+     *            the channel to read, which closing this stream closes
+     * @param start
+     *            the offset of the first byte to read
+     * @param end
+     *            the offset just past the last byte to read
+     */
+    RangeInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        position = start;
+        this.end = end;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(end - position, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public int read() throws IOException {
+        final byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(position >= end) {
+            return -1;
+        }
+
+        final int size = (int) Math.min(len, end - position);
+        final int read = channel.read(ByteBuffer.wrap(b, off, size), position);
+        if(read < 0) {
+            return -1;
+        }
+
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long skipped = Math.max(0, Math.min(n, end - position));
+        position += skipped;
+        return skipped;
+    }
+}
@@ -0,0 +1,173 @@
+package lib.easyjava.type;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * What ConcurrentListMultiMap and ConcurrentSetMultiMap share: the
+ * ConcurrentHashMap of each key's values, the running count of values and
+ * everything that only reads them or takes whole keys out. Values only go
+ * into a key's collection through the subclasses' put, inside the map's
+ * compute, and a key only comes out through removeKey, so the count can't
+ * drift from what the map holds.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ * @param <C>
+ *            the type of collection each key's values are kept in
+ */
+abstract class AbstractConcurrentMultiMap<K, V, C extends Collection<V>>
+        implements MultiMap<K, V> {
+    protected final ConcurrentHashMap<K, C> map;
+    protected final LongAdder size;
+
+    AbstractConcurrentMultiMap() {
+        map = new ConcurrentHashMap<K, C>();
+        size = new LongAdder();
+    }
+
+    /**
+     * Empties the map. Values added while it's being emptied may or may not
+     * be kept.
+     */
+    @Override
+    public void clear() {
+        for(final K key : map.keySet()) {
+            removeKey(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for(final C vals : map.values()) {
+            if(vals.contains(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets a live view of the entries in the map, which can't be changed
+     * 
+     * @return the entries of the map
+     */
+    @Override
+    public Collection<Entry<K, V>> entries() {
+        return MultiMapViews.entries(this, map, false);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(final Entry<K, C> entry : map.entrySet()) {
+            final K key = entry.getKey();
+            for(final V value : entry.getValue()) {
+                action.accept(key, value);
+            }
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + map.hashCode();
+        return result;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    /**
+     * Gets a live view of the keys in the map, which can't be changed, so
+     * every key removed goes through remove and the count of values
+     * 
+     * @return the keys
+     */
+    @Override
+    public Set<K> keySet() {
+        return Collections.unmodifiableSet(map.keySet());
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void putAll(MultiMap<? extends K, ? extends V> map) {
+        // Copied first, since entries() is a live view and map may be this
+        final List<Entry<? extends K, ? extends V>> entries =
+                new ArrayList<Entry<? extends K, ? extends V>>(map.entries());
+        for(final Entry<? extends K, ? extends V> entry : entries) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Takes a key out of the map and its values out of the count
+     * 
+     * @param key
+     *            the key to remove
+     * @return the key's values or null if it had none
+     */
+    protected C removeKey(K key) {
+        // Values are only added while the key is mapped, so once it's been
+        // removed nothing else can land in its collection
+        final C vals = map.remove(key);
+        if(vals != null) {
+            size.add(-vals.size());
+        }
+
+        return vals;
+    }
+
+    /**
+     * Gets the number of entries in the map (number of values). It's kept
+     * as a running count, so this doesn't walk the map, but while other
+     * threads are changing the map it's only an estimate.
+     * 
+     * @return the number of entries
+     */
+    @Override
+    public int size() {
+        return (int) size.sum();
+    }
+
+    @Override
+    public String toString() {
+        return MultiMapFormat.toString(this);
+    }
+
+    /**
+     * Gets a live view of the values in the map, which can't be changed
+     * 
+     * @return the values
+     */
+    @Override
+    public Collection<V> values() {
+        return MultiMapViews.values(this, map, false);
+    }
+}
@@ -0,0 +1,63 @@
+package lib.easyjava.type;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An array list that only grows, written by one thread at a time and read by
+ * any number of threads without locking. A value is stored before the size
+ * that covers it is published, so a reader never sees an unset slot, and
+ * iterators pick up values appended while they run. The list can't be
+ * changed through the List methods, so it can be handed out as is.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <V>
+ *            the type of the list's values
+ */
+class AppendOnlyList<V> extends AbstractList<V> implements RandomAccess {
+    private volatile Object[] elements;
+    private volatile int size;
+
+    AppendOnlyList() {
+        elements = new Object[2];
+    }
+
+    /**
+     * Adds a value to the end of the list. Callers have to make sure only one
+     * thread appends at a time.
+     * 
+     * @param value
+     *            the value to add
+     */
+    void append(V value) {
+        Object[] array = elements;
+        final int count = size;
+        if(count == array.length) {
+            array = Arrays.copyOf(array, count + (count >> 1) + 1);
+            elements = array;
+        }
+
+        array[count] = value;
+        size = count + 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(int index) {
+        // Read the size first, so the array read after it holds that many
+        final int count = size;
+        if(index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+                    + count);
+        }
+
+        return (V) elements[index];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
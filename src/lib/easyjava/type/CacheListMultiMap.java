@@ -0,0 +1,627 @@
+package lib.easyjava.type;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * A multimap like ListMultiMap that's meant to be used as a cache, so it
+ * stays within limits instead of growing forever. It can hold at most a set
+ * number of values in all, and at most a set number under any one key, and
+ * values can expire a set time after they were added. A key over its own
+ * limit loses its oldest values. When the whole map is over its limit, whole
+ * keys are evicted, picked by the eviction policy.
+ * 
+ * Every key is on a list in the order it was last used, and every value is on
+ * a list in the order it was added, so finding what to evict or expire never
+ * means looking through the map: each change costs amortized constant time.
+ * All of the map's methods share one lock, so it's safe to use from any
+ * number of threads. Since reading a key counts as using it, reads take the
+ * lock too, and everything that hands out keys or values hands out copies.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class CacheListMultiMap<K, V> implements MultiMap<K, V> {
+    /**
+     * How the map picks keys to evict when it holds too many values
+     */
+    public enum Policy {
+        /**
+         * Evict the key that was used longest ago
+         */
+        LRU,
+        /**
+         * Window TinyLFU: new keys start out in a small LRU window, and when
+         * they leave it they only push out the key that was used longest ago
+         * if they've been used more often recently. That keeps a burst of
+         * keys that are only used once from flushing out keys that are used
+         * all the time.
+         */
+        WINDOW_TINY_LFU
+    }
+
+    private class KeyList {
+        private KeyNode newest;
+        private KeyNode oldest;
+        private long weight;
+
+        private void add(KeyNode node) {
+            node.list = this;
+            node.older = newest;
+            node.newer = null;
+            if(newest == null) {
+                oldest = node;
+            }
+            else {
+                newest.newer = node;
+            }
+            newest = node;
+            weight += node.count;
+        }
+
+        private void remove(KeyNode node) {
+            if(node.older == null) {
+                oldest = node.newer;
+            }
+            else {
+                node.older.newer = node.newer;
+            }
+            if(node.newer == null) {
+                newest = node.older;
+            }
+            else {
+                node.newer.older = node.older;
+            }
+            node.newer = null;
+            node.older = null;
+            weight -= node.count;
+        }
+    }
+
+    private class KeyNode {
+        private int count;
+        private ValueNode first;
+        private final K key;
+        private ValueNode last;
+        private KeyList list;
+        private KeyNode newer;
+        private KeyNode older;
+
+        private KeyNode(K key) {
+            this.key = key;
+        }
+    }
+
+    private class ValueNode {
+        private ValueNode newerWrite;
+        private ValueNode next;
+        private ValueNode olderWrite;
+        private final KeyNode owner;
+        private ValueNode previous;
+        private final V value;
+        private final long written;
+
+        private ValueNode(KeyNode owner, V value, long written) {
+            this.owner = owner;
+            this.value = value;
+            this.written = written;
+        }
+    }
+
+    private long evictionCount;
+    private final long expireAfterWrite;
+    private long hitCount;
+    private final Object lock;
+    private final KeyList main;
+    private final Map<K, KeyNode> map;
+    private final long maximumValues;
+    private final int maximumValuesPerKey;
+    private long missCount;
+    private ValueNode newestWrite;
+    private ValueNode oldestWrite;
+    private long size;
+    private final FrequencySketch sketch;
+    private final KeyList window;
+    private final long windowMaximum;
+
+    /**
+     * Makes an LRU cache with no limit per key and no expiry
+     * 
+     * @param maximumValues
+     *            the most values the map can hold
+     */
+    public CacheListMultiMap(long maximumValues) {
+        this(maximumValues, Integer.MAX_VALUE, Long.MAX_VALUE,
+                TimeUnit.NANOSECONDS, Policy.LRU);
+    }
+
+    /**
+     * @param maximumValues
+     *            the most values the map can hold
+     * @param maximumValuesPerKey
+     *            the most values any one key can have, or Integer.MAX_VALUE
+     *            for no limit
+     * @param expireAfterWrite
+     *            how long values stay in the map after they're put in, or
+     *            Long.MAX_VALUE to keep them until they're evicted
+     * @param unit
+     *            the unit of expireAfterWrite
+     * @param policy
+     *            how to pick keys to evict
+     */
+    public CacheListMultiMap(long maximumValues, int maximumValuesPerKey,
+            long expireAfterWrite, TimeUnit unit, Policy policy) {
+        if(maximumValues < 0) {
+            throw new IllegalArgumentException("Maximum values must not be "
+                    + "negative: " + maximumValues);
+        }
+        if(maximumValuesPerKey < 1) {
+            throw new IllegalArgumentException("Maximum values per key must "
+                    + "be positive: " + maximumValuesPerKey);
+        }
+        if(expireAfterWrite <= 0) {
+            throw new IllegalArgumentException("Expiry time must be "
+                    + "positive: " + expireAfterWrite);
+        }
+
+        this.maximumValues = maximumValues;
+        this.maximumValuesPerKey = maximumValuesPerKey;
+        this.expireAfterWrite = expireAfterWrite == Long.MAX_VALUE
+                ? Long.MAX_VALUE : unit.toNanos(expireAfterWrite);
+        lock = new Object();
+        map = new HashMap<K, KeyNode>();
+        window = new KeyList();
+        main = new KeyList();
+
+        if(policy == Policy.WINDOW_TINY_LFU) {
+            // Like Caffeine, give the window 1% of the room
+            windowMaximum = Math.max(maximumValues / 100, 1);
+            sketch = new FrequencySketch(maximumValues);
+        }
+        else {
+            // Everything stays in the window, which is then just an LRU list
+            windowMaximum = Long.MAX_VALUE;
+            sketch = null;
+        }
+    }
+
+    private void add(KeyNode node, V value, long now) {
+        final ValueNode added = new ValueNode(node, value, now);
+        added.previous = node.last;
+        if(node.last == null) {
+            node.first = added;
+        }
+        else {
+            node.last.next = added;
+        }
+        node.last = added;
+
+        added.olderWrite = newestWrite;
+        if(newestWrite == null) {
+            oldestWrite = added;
+        }
+        else {
+            newestWrite.newerWrite = added;
+        }
+        newestWrite = added;
+
+        node.count++;
+        node.list.weight++;
+        size++;
+        if(node.count > maximumValuesPerKey) {
+            removeValue(node.first);
+            evictionCount++;
+        }
+    }
+
+    @Override
+    public void appendTo(Appendable out) throws IOException {
+        MultiMapFormat.appendTo(snapshot(), out);
+    }
+
+    @Override
+    public void clear() {
+        synchronized(lock) {
+            map.clear();
+            window.newest = null;
+            window.oldest = null;
+            window.weight = 0;
+            main.newest = null;
+            main.oldest = null;
+            main.weight = 0;
+            newestWrite = null;
+            oldestWrite = null;
+            size = 0;
+        }
+    }
+
+    /**
+     * Checks whether a key is in the map, without counting as a use of it
+     */
+    @Override
+    public boolean containsKey(K key) {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            return map.containsKey(key);
+        }
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            for(final KeyNode node : map.values()) {
+                for(ValueNode v = node.first; v != null; v = v.next) {
+                    if(Objects.equals(value, v.value)) {
+                        return true;
+                    }
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Gets a copy of all the entries in the map
+     */
+    @Override
+    public Collection<Entry<K, V>> entries() {
+        return snapshot().entries();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof CacheListMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        final CacheListMultiMap other = (CacheListMultiMap) obj;
+
+        // Copy one at a time so two maps never hold each other's locks
+        final ListMultiMap<?, ?> theirs = other.snapshot();
+        return snapshot().equals(theirs);
+    }
+
+    private void evict() {
+        // Keys that have aged out of the window become candidates for the
+        // main list, oldest first
+        KeyNode candidate = null;
+        while(window.weight > windowMaximum) {
+            final KeyNode moved = window.oldest;
+            window.remove(moved);
+            main.add(moved);
+            if(candidate == null) {
+                candidate = moved;
+            }
+        }
+
+        while(size > maximumValues) {
+            KeyNode victim = main.oldest;
+            if(victim == null) {
+                victim = window.oldest;
+            }
+            else if(candidate != null && victim != candidate
+                    && sketch.frequency(candidate.key) <= sketch
+                            .frequency(victim.key)) {
+                // The candidate hasn't earned its place, so it goes instead
+                victim = candidate;
+            }
+
+            if(victim == candidate) {
+                candidate = candidate.newer;
+            }
+            evictionCount += victim.count;
+            removeKey(victim);
+        }
+    }
+
+    private void expire(long now) {
+        if(expireAfterWrite == Long.MAX_VALUE) {
+            return;
+        }
+
+        // Values are on the write list in the order they'll expire
+        while(oldestWrite != null
+                && now - oldestWrite.written >= expireAfterWrite) {
+            removeValue(oldestWrite);
+            evictionCount++;
+        }
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        snapshot().forEach(action);
+    }
+
+    /**
+     * Gets a copy of the values stored for a key, oldest first. This counts as
+     * a use of the key, and as a hit or a miss.
+     * 
+     * @param key
+     *            the key to get values for
+     * @return the key's values or null if there are none
+     */
+    @Override
+    public List<V> get(K key) {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            final KeyNode node = map.get(key);
+            if(node == null) {
+                missCount++;
+                return null;
+            }
+
+            hitCount++;
+            touch(node);
+            return values(node);
+        }
+    }
+
+    /**
+     * Gets the number of values evicted or expired so far
+     * 
+     * @return the number of values evicted
+     */
+    public long getEvictionCount() {
+        synchronized(lock) {
+            return evictionCount;
+        }
+    }
+
+    /**
+     * Gets the number of times get found the key it was asked for
+     * 
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        synchronized(lock) {
+            return hitCount;
+        }
+    }
+
+    /**
+     * Gets the number of times get didn't find the key it was asked for
+     * 
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        synchronized(lock) {
+            return missCount;
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return snapshot().hashCode();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Gets a copy of the keys in the map
+     */
+    @Override
+    public Set<K> keySet() {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            return new HashSet<K>(map.keySet());
+        }
+    }
+
+    @Override
+    public void put(K key, V value) {
+        synchronized(lock) {
+            final long now = System.nanoTime();
+            expire(now);
+            add(use(key), value, now);
+            evict();
+        }
+    }
+
+    @Override
+    public void putAll(K key, Collection<? extends V> values) {
+        if(values.isEmpty()) {
+            return;
+        }
+
+        synchronized(lock) {
+            final long now = System.nanoTime();
+            expire(now);
+            final KeyNode node = use(key);
+            for(final V value : values) {
+                add(node, value, now);
+            }
+            evict();
+        }
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void putAll(MultiMap<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entries()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Removes a key and returns a copy of its values
+     * 
+     * @param key
+     *            the key to remove
+     * @return the key's values or null if there were none
+     */
+    @Override
+    public List<V> remove(K key) {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            final KeyNode node = map.get(key);
+            if(node == null) {
+                return null;
+            }
+
+            final List<V> values = values(node);
+            removeKey(node);
+            return values;
+        }
+    }
+
+    private void removeKey(KeyNode node) {
+        for(ValueNode value = node.first; value != null; value = value.next) {
+            unlinkWrite(value);
+        }
+        map.remove(node.key);
+        node.list.remove(node);
+        size -= node.count;
+    }
+
+    private void removeValue(ValueNode value) {
+        final KeyNode node = value.owner;
+        if(node.count == 1) {
+            removeKey(node);
+            return;
+        }
+
+        if(value.previous == null) {
+            node.first = value.next;
+        }
+        else {
+            value.previous.next = value.next;
+        }
+        if(value.next == null) {
+            node.last = value.previous;
+        }
+        else {
+            value.next.previous = value.previous;
+        }
+        unlinkWrite(value);
+
+        node.count--;
+        node.list.weight--;
+        size--;
+    }
+
+    @Override
+    public int size() {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            return (int) size;
+        }
+    }
+
+    private ListMultiMap<K, V> snapshot() {
+        final ListMultiMap<K, V> copy = new ListMultiMap<K, V>();
+        synchronized(lock) {
+            expire(System.nanoTime());
+            for(final KeyNode node : map.values()) {
+                copy.putAll(node.key, values(node));
+            }
+        }
+
+        return copy;
+    }
+
+    @Override
+    public String toString() {
+        return MultiMapFormat.toString(snapshot());
+    }
+
+    private void touch(KeyNode node) {
+        final KeyList list = node.list;
+        list.remove(node);
+        list.add(node);
+        if(sketch != null) {
+            sketch.increment(node.key);
+        }
+    }
+
+    private void unlinkWrite(ValueNode value) {
+        if(value.olderWrite == null) {
+            oldestWrite = value.newerWrite;
+        }
+        else {
+            value.olderWrite.newerWrite = value.newerWrite;
+        }
+        if(value.newerWrite == null) {
+            newestWrite = value.olderWrite;
+        }
+        else {
+            value.newerWrite.olderWrite = value.olderWrite;
+        }
+    }
+
+    private KeyNode use(K key) {
+        KeyNode node = map.get(key);
+        if(node == null) {
+            node = new KeyNode(key);
+            map.put(key, node);
+            window.add(node);
+            if(sketch != null) {
+                sketch.increment(key);
+            }
+        }
+        else {
+            touch(node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Gets a copy of all the values in the map
+     */
+    @Override
+    public Collection<V> values() {
+        synchronized(lock) {
+            expire(System.nanoTime());
+            final List<V> values = new ArrayList<V>((int) size);
+            for(final KeyNode node : map.values()) {
+                for(ValueNode value = node.first; value != null;
+                        value = value.next) {
+                    values.add(value.value);
+                }
+            }
+
+            return values;
+        }
+    }
+
+    private List<V> values(KeyNode node) {
+        final List<V> values = new ArrayList<V>(node.count);
+        for(ValueNode value = node.first; value != null; value = value.next) {
+            values.add(value.value);
+        }
+
+        return values;
+    }
+}
@@ -0,0 +1,41 @@
+package lib.easyjava.type;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns values of one type into bytes and back, for the binary multimap
+ * files. Codecs work at a buffer's position and move it past what they read
+ * or write. Running out of room isn't an error the codec has to deal with:
+ * whoever calls it makes room and tries the value again.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <T>
+ *            the type of the values
+ */
+public interface Codec<T> {
+    /**
+     * Reads one value
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the value
+     * @throws BufferUnderflowException
+     *             if the buffer ends partway through the value
+     */
+    public T read(ByteBuffer buffer);
+
+    /**
+     * Writes one value
+     * 
+     * @param value
+     *            the value to write
+     * @param buffer
+     *            the buffer to write to
+     * @throws BufferOverflowException
+     *             if the value doesn't fit in what's left of the buffer
+     */
+    public void write(T value, ByteBuffer buffer);
+}
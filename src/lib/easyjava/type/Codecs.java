@@ -0,0 +1,200 @@
+package lib.easyjava.type;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Codecs for common types. The fixed width ones take the same number of bytes
+ * for every value, and the variable length ones use a base 128 varint, with
+ * zigzag encoding so small negative numbers stay small too.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class Codecs {
+    /**
+     * Doubles as 8 bytes
+     */
+    public static final Codec<Double> DOUBLE = new Codec<Double>() {
+        @Override
+        public Double read(ByteBuffer buffer) {
+            return buffer.getDouble();
+        }
+
+        @Override
+        public void write(Double value, ByteBuffer buffer) {
+            buffer.putDouble(value);
+        }
+    };
+
+    /**
+     * Integers as 4 bytes
+     */
+    public static final Codec<Integer> INT = new Codec<Integer>() {
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            return buffer.getInt();
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            buffer.putInt(value);
+        }
+    };
+
+    /**
+     * Longs as 8 bytes
+     */
+    public static final Codec<Long> LONG = new Codec<Long>() {
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            buffer.putLong(value);
+        }
+    };
+
+    /**
+     * Strings as a varint byte count followed by their UTF-8 bytes
+     */
+    public static final Codec<String> STRING = new Codec<String>() {
+        @Override
+        public String read(ByteBuffer buffer) {
+            final long count = readVarLong(buffer);
+            if(count < 0 || count > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Malformed string length "
+                        + count);
+            }
+            final int length = (int) count;
+            if(length > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+
+            if(buffer.hasArray()) {
+                final String value = new String(buffer.array(), buffer
+                        .arrayOffset() + buffer.position(), length,
+                        StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return value;
+            }
+
+            final byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public void write(String value, ByteBuffer buffer) {
+            final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length, buffer);
+            buffer.put(bytes);
+        }
+    };
+
+    /**
+     * Integers as 1 to 5 byte varints
+     */
+    public static final Codec<Integer> VAR_INT = new Codec<Integer>() {
+        @Override
+        public Integer read(ByteBuffer buffer) {
+            final int zigzag = (int) readVarLong(buffer);
+            return zigzag >>> 1 ^ -(zigzag & 1);
+        }
+
+        @Override
+        public void write(Integer value, ByteBuffer buffer) {
+            writeVarLong((value << 1 ^ value >> 31) & 0xffffffffL, buffer);
+        }
+    };
+
+    /**
+     * Longs as 1 to 10 byte varints
+     */
+    public static final Codec<Long> VAR_LONG = new Codec<Long>() {
+        @Override
+        public Long read(ByteBuffer buffer) {
+            final long zigzag = readVarLong(buffer);
+            return zigzag >>> 1 ^ -(zigzag & 1);
+        }
+
+        @Override
+        public void write(Long value, ByteBuffer buffer) {
+            writeVarLong(value << 1 ^ value >> 63, buffer);
+        }
+    };
+
+    /**
+     * Gets a codec for pairs that writes the left item and then the right one
+     * 
+     * @param left
+     *            the codec for the left items
+     * @param right
+     *            the codec for the right items
+     * @return the codec
+     */
+    public static <T1, T2> Codec<Pair<T1, T2>> pair(final Codec<T1> left,
+            final Codec<T2> right) {
+        return new Codec<Pair<T1, T2>>() {
+            @Override
+            public Pair<T1, T2> read(ByteBuffer buffer) {
+                final T1 leftItem = left.read(buffer);
+                return new Pair<T1, T2>(leftItem, right.read(buffer));
+            }
+
+            @Override
+            public void write(Pair<T1, T2> value, ByteBuffer buffer) {
+                left.write(value.getLeft(), buffer);
+                right.write(value.getRight(), buffer);
+            }
+        };
+    }
+
+    /**
+     * Reads an unsigned base 128 varint
+     * 
+     * @param buffer
+     *            the buffer to read from
+     * @return the number
+     */
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for(int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if(b >= 0) {
+                return value;
+            }
+        }
+
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    /**
+     * Writes an unsigned base 128 varint
+     * 
+     * @param value
+     *            the number, treated as unsigned
+     * @param buffer
+     *            the buffer to write to
+     */
+    static void writeVarLong(long value, ByteBuffer buffer) {
+        // Check the room up front so a failed write leaves nothing behind
+        int length = 1;
+        for(long rest = value >>> 7; rest != 0; rest >>>= 7) {
+            length++;
+        }
+        if(buffer.remaining() < length) {
+            throw new BufferOverflowException();
+        }
+
+        while((value & ~0x7fL) != 0) {
+            buffer.put((byte) (value & 0x7f | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+}
@@ -0,0 +1,88 @@
+package lib.easyjava.type;
+
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.BiFunction;
+
+/**
+ * A thread safe multimap back by a list, allowing duplicate values under the
+ * same key. Keys live in a ConcurrentHashMap and every change goes through
+ * its compute methods, which lock only the one bin the key is in, so threads
+ * adding under different keys don't wait on each other and a key can't be
+ * removed while a value is being added to it. Values live in append-only
+ * array lists that are read without locking, and the collections it hands
+ * out are weakly consistent views like ConcurrentHashMap's. Keys and values
+ * can't be null.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class ConcurrentListMultiMap<K, V> extends
+        AbstractConcurrentMultiMap<K, V, AppendOnlyList<V>> {
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof ConcurrentListMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        final ConcurrentListMultiMap other = (ConcurrentListMultiMap) obj;
+
+        return map.equals(other.map);
+    }
+
+    /**
+     * Gets all of the values stored for a key, as a list that can't be
+     * changed and that shows values added after it was fetched
+     * 
+     * @param key
+     *            the key to get values for
+     * @return all the values stored for the key or null if there are none
+     */
+    @Override
+    public List<V> get(K key) {
+        return map.get(key);
+    }
+
+    @Override
+    public void put(K key, final V value) {
+        if(value == null) {
+            throw new NullPointerException();
+        }
+
+        map.compute(key,
+                new BiFunction<K, AppendOnlyList<V>, AppendOnlyList<V>>() {
+                    @Override
+                    public AppendOnlyList<V> apply(K k,
+                            AppendOnlyList<V> vals) {
+                        final AppendOnlyList<V> list = vals == null
+                                ? new AppendOnlyList<V>() : vals;
+                        list.append(value);
+                        size.increment();
+                        return list;
+                    }
+                });
+    }
+
+    @Override
+    public List<V> remove(K key) {
+        return removeKey(key);
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new MultiMapSpliterator<K, V>(map, size(),
+                Spliterator.CONCURRENT);
+    }
+}
@@ -0,0 +1,90 @@
+package lib.easyjava.type;
+
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiFunction;
+
+/**
+ * A thread safe multimap back by a set, disallowing duplicate values under the
+ * same key. Keys live in a ConcurrentHashMap and every change goes through
+ * its compute methods, which lock only the one bin the key is in, so threads
+ * adding under different keys don't wait on each other and a key can't be
+ * removed while a value is being added to it. Values live in concurrent
+ * sets that are read without locking, and the collections it hands out are
+ * weakly consistent views like ConcurrentHashMap's. Keys and values can't be
+ * null.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class ConcurrentSetMultiMap<K, V> extends
+        AbstractConcurrentMultiMap<K, V, Set<V>> {
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof ConcurrentSetMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        final ConcurrentSetMultiMap other = (ConcurrentSetMultiMap) obj;
+
+        return map.equals(other.map);
+    }
+
+    /**
+     * Gets all of the values stored for a key, as a view that can't be
+     * changed and that shows values added after it was fetched
+     * 
+     * @param key
+     *            the key to get values for
+     * @return all the values stored for the key or null if there are none
+     */
+    @Override
+    public Set<V> get(K key) {
+        final Set<V> vals = map.get(key);
+        return vals == null ? null : Collections.unmodifiableSet(vals);
+    }
+
+    @Override
+    public void put(K key, final V value) {
+        if(value == null) {
+            throw new NullPointerException();
+        }
+
+        map.compute(key, new BiFunction<K, Set<V>, Set<V>>() {
+            @Override
+            public Set<V> apply(K k, Set<V> vals) {
+                final Set<V> set = vals == null ? ConcurrentHashMap
+                        .<V> newKeySet() : vals;
+                if(set.add(value)) {
+                    size.increment();
+                }
+                return set;
+            }
+        });
+    }
+
+    @Override
+    public Set<V> remove(K key) {
+        return removeKey(key);
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new MultiMapSpliterator<K, V>(map, size(), Spliterator.CONCURRENT
+                | Spliterator.DISTINCT);
+    }
+}
@@ -0,0 +1,104 @@
+package lib.easyjava.type;
+
+import java.util.Objects;
+
+/**
+ * Estimates how often keys have been seen recently, in a fixed amount of
+ * memory, for TinyLFU admission in CacheListMultiMap. It's a count-min sketch
+ * of 4-bit counters, sixteen to a long: a key's estimate is the smallest of
+ * its four counters, so collisions can only make it look more popular than it
+ * is. Once it's counted ten times as many keys as it has counters, every
+ * counter is halved, so keys that used to be popular fade out.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class FrequencySketch {
+    private static final int MAX_LENGTH = 1 << 20;
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {0xc3a5c85c97cb3127L,
+            0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    private static int spread(int h) {
+        // Murmur3's finalizer, as in IntKeyIndex
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ h >>> 16;
+    }
+
+    private int additions;
+    private final int sampleSize;
+    private final long[] table;
+
+    /**
+     * @param keys
+     *            about how many keys to tell apart
+     */
+    FrequencySketch(long keys) {
+        int length = 16;
+        while(length < keys && length < MAX_LENGTH) {
+            length <<= 1;
+        }
+
+        table = new long[length];
+        sampleSize = length * 10;
+    }
+
+    private int counter(int hash, int i) {
+        // Which of the long's sixteen counters, from a different byte of the
+        // hash for each of the four
+        return (hash >>> (i << 3) & 15) << 2;
+    }
+
+    /**
+     * Estimates how many times a key has been seen recently
+     * 
+     * @param key
+     *            the key
+     * @return the estimate, from 0 to 15
+     */
+    int frequency(Object key) {
+        final int hash = spread(Objects.hashCode(key));
+        int frequency = 15;
+        for(int i = 0; i < SEEDS.length; i++) {
+            final long counters = table[index(hash, i)];
+            frequency = Math.min(frequency, (int) (counters >>> counter(hash,
+                    i) & 15));
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Counts a sighting of a key
+     * 
+     * @param key
+     *            the key
+     */
+    void increment(Object key) {
+        final int hash = spread(Objects.hashCode(key));
+        boolean added = false;
+        for(int i = 0; i < SEEDS.length; i++) {
+            final int index = index(hash, i);
+            final int offset = counter(hash, i);
+            if((table[index] >>> offset & 15) != 15) {
+                table[index] += 1L << offset;
+                added = true;
+            }
+        }
+
+        if(added && ++additions == sampleSize) {
+            for(int i = 0; i < table.length; i++) {
+                table[i] = table[i] >>> 1 & RESET_MASK;
+            }
+            additions >>>= 1;
+        }
+    }
+
+    private int index(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & table.length - 1;
+    }
+}
@@ -0,0 +1,431 @@
+package lib.easyjava.type;
+
+import java.util.AbstractCollection;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * An immutable list multimap laid out like a compressed sparse row matrix:
+ * every value sits in one array, grouped by key, and each key only stores
+ * where its values start. There's no list per key and no spare capacity, and
+ * keys are found through an open addressing table of their hashes. The lists
+ * it hands out are views of the values array that can't be changed.
+ * 
+ * Every field is final and nothing changes after construction, so a frozen
+ * map can be shared between any number of threads without locking.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class FrozenListMultiMap<K, V> implements MultiMap<K, V> {
+    private class EntrySpliterator implements Spliterator<Entry<K, V>> {
+        private final int end;
+        private int index;
+        private int position;
+
+        private EntrySpliterator(int position, int end) {
+            this.position = position;
+            this.end = end;
+            index = keyIndex(position);
+        }
+
+        @Override
+        public int characteristics() {
+            return IMMUTABLE | NONNULL | ORDERED | SIZED | SUBSIZED;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - position;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+            if(position == end) {
+                return false;
+            }
+
+            while(offsets[index + 1] <= position) {
+                index++;
+            }
+            action.accept(entry(index, position++));
+            return true;
+        }
+
+        @Override
+        public Spliterator<Entry<K, V>> trySplit() {
+            // The values are one array, so split it down the middle no matter
+            // where the keys fall
+            final int middle = position + end >>> 1;
+            if(middle <= position) {
+                return null;
+            }
+
+            final EntrySpliterator prefix = new EntrySpliterator(position,
+                    middle);
+            position = middle;
+            index = keyIndex(middle);
+            return prefix;
+        }
+    }
+
+    private static class Run<V> extends AbstractList<V> implements
+            RandomAccess {
+        private final int from;
+        private final int to;
+        private final Object[] values;
+
+        private Run(Object[] values, int from, int to) {
+            this.values = values;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int index) {
+            if(index < 0 || index >= to - from) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + (to - from));
+            }
+
+            return (V) values[from + index];
+        }
+
+        @Override
+        public int size() {
+            return to - from;
+        }
+    }
+
+    private static final String UNCHANGEABLE =
+            "FrozenListMultiMap can't be changed";
+
+    private static int hash(Object key) {
+        // Spread the high bits down the way HashMap does
+        final int h = Objects.hashCode(key);
+        return h ^ h >>> 16;
+    }
+
+    private final Object[] keys;
+    private final int mask;
+    private final int[] offsets;
+    // Pairs of hash and index + 1, where an index + 1 of 0 is an empty slot
+    private final int[] table;
+    private final Object[] values;
+
+    /**
+     * Copies a multimap into the frozen layout, keeping the order of each
+     * key's values
+     * 
+     * @param map
+     *            the map to copy
+     */
+    public FrozenListMultiMap(MultiMap<K, ? extends V> map) {
+        // The sizes are only a guess, as a concurrent map can change while
+        // it's being copied
+        final Set<K> keySet = map.keySet();
+        final List<Object> keyList = new ArrayList<Object>(keySet.size());
+        final List<Object> valueList = new ArrayList<Object>(map.size());
+        int[] starts = new int[keySet.size() + 1];
+        for(final K key : keySet) {
+            final Collection<? extends V> keyValues = map.get(key);
+            if(keyValues == null) {
+                // Removed since the key set was read
+                continue;
+            }
+
+            keyList.add(key);
+            valueList.addAll(keyValues);
+            if(keyList.size() == starts.length) {
+                starts = Arrays.copyOf(starts, starts.length * 2);
+            }
+            starts[keyList.size()] = valueList.size();
+        }
+        keys = keyList.toArray();
+        values = valueList.toArray();
+        offsets = Arrays.copyOf(starts, keys.length + 1);
+
+        int slots = 2;
+        while(slots < keys.length * 2) {
+            slots <<= 1;
+        }
+        mask = slots - 1;
+        table = new int[slots * 2];
+        for(int i = 0; i < keys.length; i++) {
+            final int hash = hash(keys[i]);
+            int slot = hash & mask;
+            while(table[slot << 1 | 1] != 0) {
+                slot = slot + 1 & mask;
+            }
+            table[slot << 1] = hash;
+            table[slot << 1 | 1] = i + 1;
+        }
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public void clear() {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return indexOf(key) >= 0;
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for(final Object val : values) {
+            if(Objects.equals(val, value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Collection<Entry<K, V>> entries() {
+        return new AbstractCollection<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new Iterator<Entry<K, V>>() {
+                    private int index = 0;
+                    private int position = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return position < values.length;
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        if(position == values.length) {
+                            throw new NoSuchElementException();
+                        }
+                        while(offsets[index + 1] == position) {
+                            index++;
+                        }
+
+                        return entry(index, position++);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Entry<K, V> entry(int index, int position) {
+        return new AbstractMap.SimpleImmutableEntry<K, V>((K) keys[index],
+                (V) values[position]);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof FrozenListMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        final FrozenListMultiMap other = (FrozenListMultiMap) obj;
+
+        if(keys.length != other.keys.length
+                || values.length != other.values.length) {
+            return false;
+        }
+        for(int i = 0; i < keys.length; i++) {
+            final int index = other.indexOf(keys[i]);
+            if(index < 0 || !run(i).equals(other.run(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(int i = 0; i < keys.length; i++) {
+            final K key = (K) keys[i];
+            for(int j = offsets[i]; j < offsets[i + 1]; j++) {
+                action.accept(key, (V) values[j]);
+            }
+        }
+    }
+
+    @Override
+    public List<V> get(K key) {
+        final int index = indexOf(key);
+        return index < 0 ? null : this.<V> run(index);
+    }
+
+    @Override
+    public int hashCode() {
+        // Summed over the keys so it doesn't depend on their order
+        int result = 0;
+        for(int i = 0; i < keys.length; i++) {
+            result += Objects.hashCode(keys[i]) ^ run(i).hashCode();
+        }
+        return result;
+    }
+
+    private int indexOf(Object key) {
+        final int hash = hash(key);
+        int slot = hash & mask;
+        while(true) {
+            final int index = table[slot << 1 | 1];
+            if(index == 0) {
+                return -1;
+            }
+            if(table[slot << 1] == hash
+                    && Objects.equals(keys[index - 1], key)) {
+                return index - 1;
+            }
+            slot = slot + 1 & mask;
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    private int keyIndex(int position) {
+        // The last key whose values start at or before the position
+        int low = 0;
+        int high = keys.length - 1;
+        while(low < high) {
+            final int middle = low + high + 1 >>> 1;
+            if(offsets[middle] <= position) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+
+        return low;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            public boolean contains(Object o) {
+                return indexOf(o) >= 0;
+            }
+
+            @Override
+            public Iterator<K> iterator() {
+                return FrozenListMultiMap.this.<K> run(keys, 0, keys.length)
+                        .iterator();
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public void put(K key, V value) {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public void putAll(K key, Collection<? extends V> values) {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public void putAll(MultiMap<? extends K, ? extends V> map) {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    /**
+     * Unsupported, as the map can't be changed
+     */
+    @Override
+    public List<V> remove(K key) {
+        throw new UnsupportedOperationException(UNCHANGEABLE);
+    }
+
+    private <T> List<T> run(int index) {
+        return run(values, offsets[index], offsets[index + 1]);
+    }
+
+    private <T> List<T> run(Object[] array, int from, int to) {
+        return new Run<T>(array, from, to);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new EntrySpliterator(0, values.length);
+    }
+
+    @Override
+    public String toString() {
+        return MultiMapFormat.toString(this);
+    }
+
+    @Override
+    public List<V> values() {
+        return run(values, 0, values.length);
+    }
+}
@@ -0,0 +1,18 @@
+package lib.easyjava.type;
+
+/**
+ * Takes the key/value pairs of an int multimap one at a time
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public interface IntIntConsumer {
+    /**
+     * Takes one key/value pair
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     */
+    public void accept(int key, int value);
+}
@@ -0,0 +1,219 @@
+package lib.easyjava.type;
+
+import java.util.Arrays;
+
+/**
+ * Numbers the keys of a primitive multimap 0 to size - 1, so the map can keep
+ * each key's values in plain arrays at that index. Lookups go through an open
+ * addressing table with linear probing that holds each key next to its index,
+ * so a probe touches one cache line. Removing a key moves the last key into
+ * the index it leaves behind.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class IntKeyIndex {
+    static final int MIN_CAPACITY = 8;
+
+    private static int hash(int key) {
+        // Murmur3's finalizer, so keys that only differ in their high bits
+        // still spread over the low bits the mask keeps
+        int h = key ^ key >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ h >>> 16;
+    }
+
+    private static int tableSize(int keys) {
+        // Keep the table at most half full
+        int slots = MIN_CAPACITY * 2;
+        while(slots >> 1 < keys) {
+            slots <<= 1;
+        }
+
+        return slots;
+    }
+
+    private int[] keys;
+    private int mask;
+    private int size;
+    // Pairs of key and index + 1, where an index + 1 of 0 is an empty slot
+    private int[] table;
+
+    /**
+     * @param expectedKeys
+     *            the number of keys to make room for
+     */
+    IntKeyIndex(int expectedKeys) {
+        keys = new int[Math.max(expectedKeys, MIN_CAPACITY)];
+        allocate(tableSize(expectedKeys));
+    }
+
+    /**
+     * Adds a key that isn't in the index yet
+     * 
+     * @param key
+     *            the key
+     * @return the key's index, which is the old size
+     */
+    int add(int key) {
+        if(size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        if(size == mask + 1 >> 1) {
+            rehash(mask + 1 << 1);
+        }
+
+        keys[size] = key;
+        insert(key, size);
+        return size++;
+    }
+
+    private void allocate(int slots) {
+        table = new int[slots * 2];
+        mask = slots - 1;
+    }
+
+    /**
+     * Gets the number of keys the index can hold before its arrays grow, which
+     * is how big the multimaps' arrays indexed by key need to be
+     * 
+     * @return the capacity
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Removes every key, shrinking back to the smallest size
+     */
+    void clear() {
+        keys = new int[MIN_CAPACITY];
+        allocate(tableSize(0));
+        size = 0;
+    }
+
+    /**
+     * Finds the index of a key
+     * 
+     * @param key
+     *            the key
+     * @return the key's index or -1 if it isn't in the index
+     */
+    int indexOf(int key) {
+        final int slot = slotOf(key);
+        return slot < 0 ? -1 : table[slot << 1 | 1] - 1;
+    }
+
+    private void insert(int key, int index) {
+        int slot = hash(key) & mask;
+        while(table[slot << 1 | 1] != 0) {
+            slot = slot + 1 & mask;
+        }
+
+        table[slot << 1] = key;
+        table[slot << 1 | 1] = index + 1;
+    }
+
+    /**
+     * Gets the key at an index
+     * 
+     * @param index
+     *            the index, below size()
+     * @return the key
+     */
+    int key(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Copies out every key in index order
+     * 
+     * @return the keys
+     */
+    int[] keys() {
+        return Arrays.copyOf(keys, size);
+    }
+
+    private void rehash(int slots) {
+        allocate(slots);
+        for(int i = 0; i < size; i++) {
+            insert(keys[i], i);
+        }
+    }
+
+    /**
+     * Removes a key. If it wasn't the last key, the last key takes its index,
+     * and the caller has to move whatever it keeps at index size() to the
+     * returned index.
+     * 
+     * @param key
+     *            the key
+     * @return the index the key had or -1 if it wasn't in the index
+     */
+    int remove(int key) {
+        final int slot = slotOf(key);
+        if(slot < 0) {
+            return -1;
+        }
+
+        final int index = table[slot << 1 | 1] - 1;
+        removeSlot(slot);
+        size--;
+        if(index != size) {
+            final int last = keys[size];
+            keys[index] = last;
+            table[slotOf(last) << 1 | 1] = index + 1;
+        }
+
+        return index;
+    }
+
+    private void removeSlot(int slot) {
+        // Shift later keys in the run back into the hole, as long as that
+        // doesn't move them in front of the slot they hash to
+        int hole = slot;
+        int next = slot + 1 & mask;
+        while(table[next << 1 | 1] != 0) {
+            final int home = hash(table[next << 1]) & mask;
+            if((next - home & mask) >= (next - hole & mask)) {
+                table[hole << 1] = table[next << 1];
+                table[hole << 1 | 1] = table[next << 1 | 1];
+                hole = next;
+            }
+            next = next + 1 & mask;
+        }
+
+        table[hole << 1] = 0;
+        table[hole << 1 | 1] = 0;
+    }
+
+    /**
+     * Gets the number of keys in the index
+     * 
+     * @return the number of keys
+     */
+    int size() {
+        return size;
+    }
+
+    private int slotOf(int key) {
+        int slot = hash(key) & mask;
+        while(table[slot << 1 | 1] != 0) {
+            if(table[slot << 1] == key) {
+                return slot;
+            }
+            slot = slot + 1 & mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Shrinks the index's arrays to the smallest size that holds its keys
+     */
+    void trimToSize() {
+        keys = Arrays.copyOf(keys, Math.max(size, MIN_CAPACITY));
+        rehash(tableSize(size));
+    }
+}
@@ -1,18 +1,32 @@
 package lib.easyjava.type;
 
-import java.util.AbstractMap;
+import java.util.AbstractList;
+import java.util.AbstractSet;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.RandomAccess;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
 
 /**
  * A multimap back by a list, allowing duplicate values under the same key
  * 
+ * The lists it hands out count their own changes, so the number of values is
+ * kept up to date rather than counted, and entries() and values() are live
+ * views rather than copies. It can also keep a count of every value to answer
+ * containsValue without looking through the whole map.
+ * 
+ * A key goes away once its last value is removed, however that happens.
+ * Adding to the key's list after that puts it back, unless the key has been
+ * given a new list in the meantime.
+ * 
  * @author Rob Rua (rrua@andrew.cmu.edu)
  * 
  * @param <K>
@@ -21,15 +35,243 @@ import java.util.Set;
  *            the type of the map's values
  */
 public class ListMultiMap<K, V> implements MultiMap<K, V> {
-    private final Map<K, List<V>> map;
+    // Removing a key through the key set has to detach its values, as
+    // remove does
+    private class KeySet extends AbstractSet<K> {
+        @Override
+        public void clear() {
+            ListMultiMap.this.clear();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<Entry<K, ValueList>> entries = map.entrySet()
+                    .iterator();
+            return new Iterator<K>() {
+                private ValueList last;
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    final Entry<K, ValueList> entry = entries.next();
+                    last = entry.getValue();
+                    return entry.getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                    last.detach();
+                }
+            };
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            final ValueList values = map.remove(key);
+            if(values == null) {
+                return false;
+            }
+
+            values.detach();
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+
+    private class ValueList extends AbstractList<V> implements RandomAccess {
+        // Whether the list is still in the map, so its changes count
+        private boolean attached;
+        private int count;
+        private Object[] elements;
+        // Whether it was taken out of the map for being empty
+        private boolean emptied;
+        private final K key;
+
+        private ValueList(K key) {
+            this.key = key;
+            attached = true;
+            elements = new Object[1];
+        }
+
+        @Override
+        public void add(int index, V value) {
+            if(index < 0 || index > count) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + count);
+            }
+            if(count == elements.length) {
+                elements = Arrays.copyOf(elements, count + (count >> 1) + 1);
+            }
+
+            System.arraycopy(elements, index, elements, index + 1, count
+                    - index);
+            elements[index] = value;
+            count++;
+            modCount++;
+            reattach();
+            if(attached) {
+                added(value);
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean addAll(Collection<? extends V> values) {
+            // Grows once for the lot instead of once per value
+            final Object[] added = values.toArray();
+            if(added.length == 0) {
+                return false;
+            }
+            if(count + added.length > elements.length) {
+                elements = Arrays.copyOf(elements, Math.max(count
+                        + added.length, count + (count >> 1) + 1));
+            }
+
+            System.arraycopy(added, 0, elements, count, added.length);
+            count += added.length;
+            modCount++;
+            reattach();
+            if(attached) {
+                for(final Object value : added) {
+                    added((V) value);
+                }
+            }
+
+            return true;
+        }
+
+        private void detach() {
+            for(int i = 0; i < count; i++) {
+                removed(elements[i]);
+            }
+            attached = false;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(int index) {
+            if(index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index
+                        + ", Size: " + count);
+            }
+
+            return (V) elements[index];
+        }
+
+        private void reattach() {
+            if(emptied && !map.containsKey(key)) {
+                map.put(key, this);
+                attached = true;
+            }
+            emptied = false;
+        }
+
+        @Override
+        public V remove(int index) {
+            final V value = get(index);
+            removeRange(index, index + 1);
+            return value;
+        }
+
+        private void removeIfEmpty() {
+            if(!attached || count != 0) {
+                return;
+            }
+
+            // The map's iterators take the key out themselves first
+            if(map.get(key) == this) {
+                map.remove(key);
+            }
+            attached = false;
+            emptied = true;
+        }
+
+        @Override
+        protected void removeRange(int fromIndex, int toIndex) {
+            // AbstractList would remove these one at a time, which is
+            // quadratic for clear()
+            if(attached) {
+                for(int i = fromIndex; i < toIndex; i++) {
+                    removed(elements[i]);
+                }
+            }
+
+            System.arraycopy(elements, toIndex, elements, fromIndex, count
+                    - toIndex);
+            Arrays.fill(elements, count - (toIndex - fromIndex), count, null);
+            count -= toIndex - fromIndex;
+            modCount++;
+            removeIfEmpty();
+        }
+
+        @Override
+        public V set(int index, V value) {
+            final V old = get(index);
+            elements[index] = value;
+            if(attached) {
+                removed(old);
+                added(value);
+            }
+
+            return old;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+
+    private final Map<K, ValueList> map;
+    private int size;
+    private final Map<V, Integer> valueCounts;
 
     public ListMultiMap() {
-        map = new HashMap<K, List<V>>();
+        this(false);
+    }
+
+    /**
+     * @param indexValues
+     *            whether to keep a count of every value, so containsValue
+     *            doesn't have to look through the whole map
+     */
+    public ListMultiMap(boolean indexValues) {
+        map = new HashMap<K, ValueList>();
+        valueCounts = indexValues ? new HashMap<V, Integer>() : null;
+    }
+
+    private void added(V value) {
+        size++;
+        if(valueCounts != null) {
+            final Integer count = valueCounts.get(value);
+            valueCounts.put(value, count == null ? 1 : count + 1);
+        }
     }
 
     @Override
     public void clear() {
+        for(final ValueList values : map.values()) {
+            values.attached = false;
+        }
         map.clear();
+        size = 0;
+        if(valueCounts != null) {
+            valueCounts.clear();
+        }
     }
 
     @Override
@@ -39,8 +281,12 @@ public class ListMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public boolean containsValue(V value) {
-        for(final K key : map.keySet()) {
-            if(map.get(key).contains(value)) {
+        if(valueCounts != null) {
+            return valueCounts.containsKey(value);
+        }
+
+        for(final ValueList values : map.values()) {
+            if(values.contains(value)) {
                 return true;
             }
         }
@@ -50,14 +296,7 @@ public class ListMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public Collection<Entry<K, V>> entries() {
-        final Collection<Entry<K, V>> entries = new LinkedList<Entry<K, V>>();
-        for(final K key : map.keySet()) {
-            for(final V val : map.get(key)) {
-                entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(key, val));
-            }
-        }
-
-        return entries;
+        return MultiMapViews.entries(this, map, true);
     }
 
     @Override
@@ -86,6 +325,26 @@ public class ListMultiMap<K, V> implements MultiMap<K, V> {
         return true;
     }
 
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(final Entry<K, ValueList> entry : map.entrySet()) {
+            final K key = entry.getKey();
+            for(final V value : entry.getValue()) {
+                action.accept(key, value);
+            }
+        }
+    }
+
+    /**
+     * Copies the map into an immutable, compact form, for a map that's done
+     * changing and is about to be read from many threads
+     * 
+     * @return the frozen copy
+     */
+    public FrozenListMultiMap<K, V> freeze() {
+        return new FrozenListMultiMap<K, V>(this);
+    }
+
     @Override
     public List<V> get(K key) {
         return map.get(key);
@@ -101,21 +360,36 @@ public class ListMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size == 0;
     }
 
     @Override
     public Set<K> keySet() {
-        return map.keySet();
+        return new KeySet();
     }
 
     @Override
     public void put(K key, V value) {
-        if(!map.containsKey(key)) {
-            final ArrayList<V> val = new ArrayList<V>();
-            map.put(key, val);
+        ValueList values = map.get(key);
+        if(values == null) {
+            values = new ValueList(key);
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    @Override
+    public void putAll(K key, Collection<? extends V> values) {
+        if(values.isEmpty()) {
+            return;
+        }
+
+        ValueList list = map.get(key);
+        if(list == null) {
+            list = new ValueList(key);
+            map.put(key, list);
         }
-        map.get(key).add(value);
+        list.addAll(values);
     }
 
     @Override
@@ -127,51 +401,55 @@ public class ListMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public void putAll(MultiMap<? extends K, ? extends V> map) {
-        for(final Entry<? extends K, ? extends V> entry : map.entries()) {
+        // Copied first, since entries() is a live view and map may be this
+        final List<Entry<? extends K, ? extends V>> entries =
+                new ArrayList<Entry<? extends K, ? extends V>>(map.entries());
+        for(final Entry<? extends K, ? extends V> entry : entries) {
             put(entry.getKey(), entry.getValue());
         }
     }
 
     @Override
     public List<V> remove(K key) {
-        return map.remove(key);
+        final ValueList values = map.remove(key);
+        if(values != null) {
+            values.detach();
+        }
+
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removed(Object value) {
+        size--;
+        if(valueCounts != null) {
+            final Integer count = valueCounts.get(value);
+            if(count == 1) {
+                valueCounts.remove(value);
+            }
+            else {
+                valueCounts.put((V) value, count - 1);
+            }
+        }
     }
 
     @Override
     public int size() {
-        int count = 0;
-        for(final K key : map.keySet()) {
-            count += map.get(key).size();
-        }
+        return size;
+    }
 
-        return count;
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new MultiMapSpliterator<K, V>(map, size, 0);
     }
 
     @Override
     public String toString() {
-        String result = "{";
-        for(final K key : map.keySet()) {
-            result += "\n\t" + key.toString() + ": ";
-
-            final String vals = "";
-            for(final V val : map.get(key)) {
-                result += ", " + val.toString();
-            }
-
-            result += vals.substring(2);
-        }
-        result += "\n}";
-
-        return result;
+        return MultiMapFormat.toString(this);
     }
 
     @Override
     public Collection<V> values() {
-        final Collection<V> values = new LinkedList<V>();
-        for(final K key : map.keySet()) {
-            values.addAll(map.get(key));
-        }
-
-        return values;
+        return MultiMapViews.values(this, map, true);
     }
 }
@@ -0,0 +1,387 @@
+package lib.easyjava.type;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * A multimap from long keys to long values, allowing duplicate values under the
+ * same key. It follows the MultiMap contract with primitives in place of
+ * objects: keys live in an open addressing table and each key's values in
+ * one long array, so nothing is boxed and there's no collection per key. The
+ * methods that take a consumer visit values without allocating anything.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class LongListMultiMap {
+    private int[] counts;
+    private final LongKeyIndex keys;
+    private int size;
+    private long[][] values;
+
+    public LongListMultiMap() {
+        this(0);
+    }
+
+    /**
+     * @param expectedKeys
+     *            the number of keys to make room for up front
+     */
+    public LongListMultiMap(int expectedKeys) {
+        keys = new LongKeyIndex(expectedKeys);
+        counts = new int[keys.capacity()];
+        values = new long[keys.capacity()][];
+    }
+
+    private long[] append(int index, int additional) {
+        // Grows by half again, like ArrayList, starting from one value
+        final long[] vals = values[index];
+        final int needed = counts[index] + additional;
+        if(needed <= vals.length) {
+            return vals;
+        }
+
+        final int grown = vals.length + (vals.length >> 1) + 1;
+        values[index] = Arrays.copyOf(vals, Math.max(needed, grown));
+        return values[index];
+    }
+
+    /**
+     * Empties the map of all previously added keys and values
+     */
+    public void clear() {
+        keys.clear();
+        counts = new int[keys.capacity()];
+        values = new long[keys.capacity()][];
+        size = 0;
+    }
+
+    /**
+     * Checks if the map contains the given key
+     * 
+     * @param key
+     *            the key to look for
+     * @return whether the map contains the key
+     */
+    public boolean containsKey(long key) {
+        return keys.indexOf(key) >= 0;
+    }
+
+    /**
+     * Checks if the map contains the given value, which looks through every
+     * value in the map
+     * 
+     * @param value
+     *            the value to look for
+     * @return whether the map contains the value
+     */
+    public boolean containsValue(long value) {
+        for(int i = 0; i < keys.size(); i++) {
+            final long[] vals = values[i];
+            final int count = counts[i];
+            for(int j = 0; j < count; j++) {
+                if(vals[j] == value) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Gets the number of values stored for a key
+     * 
+     * @param key
+     *            the key to count values for
+     * @return the number of values, which is 0 if the key isn't in the map
+     */
+    public int count(long key) {
+        final int index = keys.indexOf(key);
+        return index < 0 ? 0 : counts[index];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof LongListMultiMap)) {
+            return false;
+        }
+        final LongListMultiMap other = (LongListMultiMap) obj;
+        if(size != other.size || keys.size() != other.keys.size()) {
+            return false;
+        }
+        for(int i = 0; i < keys.size(); i++) {
+            final int index = other.keys.indexOf(keys.key(i));
+            if(index < 0 || counts[i] != other.counts[index]) {
+                return false;
+            }
+            final long[] vals = values[i];
+            final long[] otherVals = other.values[index];
+            for(int j = 0; j < counts[i]; j++) {
+                if(vals[j] != otherVals[j]) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gives every key/value pair in the map to a consumer, one key at a time,
+     * with each key's values in the order they were added. The consumer
+     * shouldn't change the map.
+     * 
+     * @param consumer
+     *            the consumer to give the pairs to
+     */
+    public void forEach(LongLongConsumer consumer) {
+        for(int i = 0; i < keys.size(); i++) {
+            final long key = keys.key(i);
+            final long[] vals = values[i];
+            final int count = counts[i];
+            for(int j = 0; j < count; j++) {
+                consumer.accept(key, vals[j]);
+            }
+        }
+    }
+
+    /**
+     * Gives every key in the map to a consumer. The consumer shouldn't change
+     * the map.
+     * 
+     * @param consumer
+     *            the consumer to give the keys to
+     */
+    public void forEachKey(LongConsumer consumer) {
+        for(int i = 0; i < keys.size(); i++) {
+            consumer.accept(keys.key(i));
+        }
+    }
+
+    /**
+     * Gets a copy of all of the values stored for a key
+     * 
+     * @param key
+     *            the key to get values for
+     * @return all the values stored for the key in the order they were added
+     *         or null if there are none
+     */
+    public long[] get(long key) {
+        final int index = keys.indexOf(key);
+        if(index < 0) {
+            return null;
+        }
+
+        return Arrays.copyOf(values[index], counts[index]);
+    }
+
+    /**
+     * Gives all of the values stored for a key to a consumer, in the order
+     * they were added. The consumer shouldn't change the map.
+     * 
+     * @param key
+     *            the key to get values for
+     * @param consumer
+     *            the consumer to give the values to
+     * @return whether the map contains the key
+     */
+    public boolean get(long key, LongConsumer consumer) {
+        final int index = keys.indexOf(key);
+        if(index < 0) {
+            return false;
+        }
+
+        final long[] vals = values[index];
+        final int count = counts[index];
+        for(int i = 0; i < count; i++) {
+            consumer.accept(vals[i]);
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        // Summed over the keys so it doesn't depend on their order
+        int result = 0;
+        for(int i = 0; i < keys.size(); i++) {
+            final long[] vals = values[i];
+            int hash = 1;
+            for(int j = 0; j < counts[i]; j++) {
+                hash = 31 * hash + Long.hashCode(vals[j]);
+            }
+            result += Long.hashCode(keys.key(i)) ^ hash;
+        }
+        return result;
+    }
+
+    private int indexFor(long key) {
+        int index = keys.indexOf(key);
+        if(index < 0) {
+            index = keys.add(key);
+            if(index == counts.length) {
+                counts = Arrays.copyOf(counts, keys.capacity());
+                values = Arrays.copyOf(values, keys.capacity());
+            }
+            values[index] = new long[1];
+        }
+
+        return index;
+    }
+
+    /**
+     * Checks if the map is empty or not
+     * 
+     * @return whether the map is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Gets a copy of all the keys in the map
+     * 
+     * @return the keys
+     */
+    public long[] keys() {
+        return keys.keys();
+    }
+
+    /**
+     * Adds a key/value pair to the map
+     * 
+     * @param key
+     *            the key to add
+     * @param value
+     *            the value to add
+     */
+    public void put(long key, long value) {
+        final int index = indexFor(key);
+        append(index, 1)[counts[index]++] = value;
+        size++;
+    }
+
+    /**
+     * Adds several values under one key, growing the key's values at most
+     * once
+     * 
+     * @param key
+     *            the key to add
+     * @param vals
+     *            the values to add
+     */
+    public void putAll(long key, long[] vals) {
+        if(vals.length == 0) {
+            return;
+        }
+
+        final int index = indexFor(key);
+        System.arraycopy(vals, 0, append(index, vals.length), counts[index],
+                vals.length);
+        counts[index] += vals.length;
+        size += vals.length;
+    }
+
+    /**
+     * Adds all of the key/value pairs from the given map into this map
+     * 
+     * @param map
+     *            the map to add
+     */
+    public void putAll(LongListMultiMap map) {
+        for(int i = 0; i < map.keys.size(); i++) {
+            final int index = indexFor(map.keys.key(i));
+            final int count = map.counts[i];
+            System.arraycopy(map.values[i], 0, append(index, count),
+                    counts[index], count);
+            counts[index] += count;
+            size += count;
+        }
+    }
+
+    /**
+     * Removes a key from the map
+     * 
+     * @param key
+     *            the key to remove
+     * @return the values mapped to that key before it was removed or null if
+     *         there were none
+     */
+    public long[] remove(long key) {
+        final int index = keys.remove(key);
+        if(index < 0) {
+            return null;
+        }
+
+        final long[] removed = Arrays.copyOf(values[index], counts[index]);
+        size -= counts[index];
+        final int last = keys.size();
+        values[index] = values[last];
+        counts[index] = counts[last];
+        values[last] = null;
+        counts[last] = 0;
+        return removed;
+    }
+
+    /**
+     * Gets the number of entries in the map (number of values)
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder result = new StringBuilder("{");
+        for(int i = 0; i < keys.size(); i++) {
+            result.append("\n\t").append(keys.key(i)).append(": ");
+            final long[] vals = values[i];
+            for(int j = 0; j < counts[i]; j++) {
+                if(j > 0) {
+                    result.append(", ");
+                }
+                result.append(vals[j]);
+            }
+        }
+        result.append("\n}");
+
+        return result.toString();
+    }
+
+    /**
+     * Drops the spare room kept for adding keys and values, for a map that's
+     * done growing
+     */
+    public void trimToSize() {
+        keys.trimToSize();
+        counts = Arrays.copyOf(counts, keys.capacity());
+        values = Arrays.copyOf(values, keys.capacity());
+        for(int i = 0; i < keys.size(); i++) {
+            if(values[i].length != counts[i]) {
+                values[i] = Arrays.copyOf(values[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * Gets a copy of all the values in the map, grouped by key
+     * 
+     * @return the values
+     */
+    public long[] values() {
+        final long[] all = new long[size];
+        int position = 0;
+        for(int i = 0; i < keys.size(); i++) {
+            System.arraycopy(values[i], 0, all, position, counts[i]);
+            position += counts[i];
+        }
+
+        return all;
+    }
+}
@@ -1,8 +1,17 @@
 package lib.easyjava.type;
 
+import java.io.IOException;
 import java.util.Collection;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import lib.easyjava.io.file.FileWriter;
 
 /**
  * An interface for a multimap roughly conforming to Java's map specifications
@@ -15,6 +24,19 @@ import java.util.Set;
  *            the type of the map's values
  */
 public interface MultiMap<K, V> {
+    /**
+     * Writes the map onto the end of an Appendable in the same form as
+     * toString, a batch at a time, so the whole text never has to be in
+     * memory at once
+     * 
+     * @param out
+     *            where to write the map
+     * @throws IOException
+     */
+    public default void appendTo(Appendable out) throws IOException {
+        MultiMapFormat.appendTo(this, out);
+    }
+
     /**
      * Empties the map of all previously added keys and values
      */
@@ -45,6 +67,21 @@ public interface MultiMap<K, V> {
      */
     public Collection<java.util.Map.Entry<K, V>> entries();
 
+    /**
+     * Gives every key/value pair in the map to an action, without building
+     * an entry for each one
+     * 
+     * @param action
+     *            the action to give the pairs to
+     */
+    public default void forEach(BiConsumer<? super K, ? super V> action) {
+        for(final K key : keySet()) {
+            for(final V value : get(key)) {
+                action.accept(key, value);
+            }
+        }
+    }
+
     /**
      * Gets all of the values stored for a key
      * 
@@ -68,6 +105,15 @@ public interface MultiMap<K, V> {
      */
     public Set<K> keySet();
 
+    /**
+     * Gets a parallel stream of the entries in the map
+     * 
+     * @return the stream
+     */
+    public default Stream<Entry<K, V>> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
     /**
      * Adds a key/value pair to the map
      * 
@@ -78,6 +124,20 @@ public interface MultiMap<K, V> {
      */
     public void put(K key, V value);
 
+    /**
+     * Adds a key with each of the given values to the map
+     * 
+     * @param key
+     *            the key to add
+     * @param values
+     *            the values to add
+     */
+    public default void putAll(K key, Collection<? extends V> values) {
+        for(final V value : values) {
+            put(key, value);
+        }
+    }
+
     /**
      * Adds all of the key/value pairs from the given map into this map
      * 
@@ -110,10 +170,43 @@ public interface MultiMap<K, V> {
      */
     public int size();
 
+    /**
+     * Gets a spliterator over the entries in the map. By default this splits
+     * entries() in batches, and implementations that can split along their
+     * own structure override it.
+     * 
+     * @return the spliterator
+     */
+    public default Spliterator<Entry<K, V>> spliterator() {
+        return Spliterators.spliterator(entries(), Spliterator.NONNULL);
+    }
+
+    /**
+     * Gets a sequential stream of the entries in the map
+     * 
+     * @return the stream
+     */
+    public default Stream<Entry<K, V>> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
     /**
      * Gets all the values in the map
      * 
      * @return the values
      */
     public Collection<V> values();
+
+    /**
+     * Writes the map into a file in the same form as toString, a batch at a
+     * time, and flushes the writer when it's done. The writer is left open.
+     * 
+     * @param writer
+     *            the writer for the file
+     * @throws IOException
+     */
+    public default void writeTo(FileWriter writer) throws IOException {
+        appendTo(writer);
+        writer.flush();
+    }
 }
@@ -0,0 +1,333 @@
+package lib.easyjava.type;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import lib.easyjava.io.file.ChannelFileWriter;
+import lib.easyjava.io.file.MappedFileReader;
+
+/**
+ * Saves multimaps in a compact binary format and loads them back. A file is a
+ * header, then each key followed by a varint count of its values and the
+ * values themselves, then a trailer with the number of keys and values. The
+ * counts go at the end so a file can be written in one pass without knowing
+ * them ahead of time or seeking back. Loading maps the file into memory and
+ * reads it in windows of up to a gigabyte, so the file's size isn't limited
+ * by what fits in a ByteBuffer.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+public class MultiMapFile {
+    private static class Input {
+        private long base;
+        private final long end;
+        private final File file;
+        private final MappedFileReader reader;
+        private ByteBuffer window;
+
+        private Input(File file, MappedFileReader reader, long start, long end)
+                throws IOException {
+            this.file = file;
+            this.reader = reader;
+            this.end = end;
+            base = start;
+            window = reader.slice(start, (int) Math.min(WINDOW_SIZE, end
+                    - start));
+        }
+
+        private IOException corrupt(IllegalArgumentException e) {
+            return new IOException("Corrupt multimap file "
+                    + file.getAbsolutePath(), e);
+        }
+
+        private void finish() throws IOException {
+            if(base + window.position() != end) {
+                throw new IOException("Unexpected data at the end of "
+                        + file.getAbsolutePath());
+            }
+        }
+
+        private <T> T read(Codec<T> codec) throws IOException {
+            final int start = window.position();
+            try {
+                return codec.read(window);
+            }
+            catch(final BufferUnderflowException e) {
+                // The value runs past the window, so start a new one at it
+                remap(start);
+                try {
+                    return codec.read(window);
+                }
+                catch(final BufferUnderflowException e2) {
+                    throw truncated();
+                }
+                catch(final IllegalArgumentException e2) {
+                    throw corrupt(e2);
+                }
+            }
+            catch(final IllegalArgumentException e) {
+                throw corrupt(e);
+            }
+        }
+
+        private int readCount() throws IOException {
+            final int start = window.position();
+            long count;
+            try {
+                count = Codecs.readVarLong(window);
+            }
+            catch(final BufferUnderflowException e) {
+                remap(start);
+                try {
+                    count = Codecs.readVarLong(window);
+                }
+                catch(final BufferUnderflowException e2) {
+                    throw truncated();
+                }
+                catch(final IllegalArgumentException e2) {
+                    throw corrupt(e2);
+                }
+            }
+            catch(final IllegalArgumentException e) {
+                throw corrupt(e);
+            }
+
+            if(count < 0 || count > Integer.MAX_VALUE) {
+                throw new IOException("Bad value count " + count + " in "
+                        + file.getAbsolutePath());
+            }
+            return (int) count;
+        }
+
+        private void remap(int start) throws IOException {
+            if(base + window.limit() == end) {
+                throw truncated();
+            }
+
+            base += start;
+            window = reader.slice(base, (int) Math.min(WINDOW_SIZE, end
+                    - base));
+        }
+
+        private IOException truncated() {
+            return new IOException("Truncated multimap file "
+                    + file.getAbsolutePath());
+        }
+    }
+
+    private static class Output {
+        private ByteBuffer buffer;
+        private final ChannelFileWriter writer;
+
+        private Output(ChannelFileWriter writer) {
+            this.writer = writer;
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            writer.write(buffer);
+            buffer.clear();
+        }
+
+        private <T> void write(Codec<? super T> codec, T value)
+                throws IOException {
+            while(true) {
+                final int start = buffer.position();
+                try {
+                    codec.write(value, buffer);
+                    return;
+                }
+                catch(final BufferOverflowException e) {
+                    buffer.position(start);
+                    if(start == 0) {
+                        // Too big even for an empty buffer
+                        buffer = ByteBuffer.allocateDirect(buffer.capacity()
+                                * 2);
+                    }
+                    else {
+                        flush();
+                    }
+                }
+            }
+        }
+
+        private void writeCount(long count) throws IOException {
+            if(buffer.remaining() < MAX_VARINT_SIZE) {
+                flush();
+            }
+            Codecs.writeVarLong(count, buffer);
+        }
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAGIC = 0x454a4d4d;
+    private static final int MAX_VARINT_SIZE = 10;
+    private static final int TRAILER_SIZE = 20;
+    private static final int VERSION = 1;
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * Loads the contents of a multimap file into a multimap
+     * 
+     * @param file
+     *            the file to load
+     * @param keyCodec
+     *            the codec the keys were written with
+     * @param valueCodec
+     *            the codec the values were written with
+     * @param multimap
+     *            the multimap to put the keys and values in
+     * @throws IOException
+     */
+    public static <K, V> void read(File file, Codec<? extends K> keyCodec,
+            Codec<? extends V> valueCodec, MultiMap<K, V> multimap)
+            throws IOException {
+        final MappedFileReader reader = new MappedFileReader(file);
+        try {
+            final long length = reader.length();
+            if(length < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Not a multimap file: "
+                        + file.getAbsolutePath());
+            }
+
+            final ByteBuffer header = reader.slice(0, HEADER_SIZE);
+            final ByteBuffer trailer = reader.slice(length - TRAILER_SIZE,
+                    TRAILER_SIZE);
+            if(header.getInt() != MAGIC || trailer.getInt(16) != MAGIC) {
+                throw new IOException("Not a multimap file: "
+                        + file.getAbsolutePath());
+            }
+            final int version = header.getInt();
+            if(version != VERSION) {
+                throw new IOException("Unsupported multimap file version "
+                        + version + " in " + file.getAbsolutePath());
+            }
+            final long keys = trailer.getLong();
+            final long values = trailer.getLong();
+
+            final Input in = new Input(file, reader, HEADER_SIZE, length
+                    - TRAILER_SIZE);
+            final List<V> group = new ArrayList<V>();
+            long read = 0;
+            for(long i = 0; i < keys; i++) {
+                final K key = in.read(keyCodec);
+                final int count = in.readCount();
+                for(int j = 0; j < count; j++) {
+                    group.add(in.read(valueCodec));
+                }
+
+                multimap.putAll(key, group);
+                read += count;
+                group.clear();
+            }
+
+            in.finish();
+            if(read != values) {
+                throw new IOException("Expected " + values + " values but "
+                        + "found " + read + " in " + file.getAbsolutePath());
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Loads a multimap file into a new ListMultiMap
+     * 
+     * @param file
+     *            the file to load
+     * @param keyCodec
+     *            the codec the keys were written with
+     * @param valueCodec
+     *            the codec the values were written with
+     * @return the loaded map
+     * @throws IOException
+     */
+    public static <K, V> ListMultiMap<K, V> readList(File file,
+            Codec<? extends K> keyCodec, Codec<? extends V> valueCodec)
+            throws IOException {
+        final ListMultiMap<K, V> multimap = new ListMultiMap<K, V>();
+        read(file, keyCodec, valueCodec, multimap);
+        return multimap;
+    }
+
+    /**
+     * Loads a multimap file into a new SetMultiMap
+     * 
+     * @param file
+     *            the file to load
+     * @param keyCodec
+     *            the codec the keys were written with
+     * @param valueCodec
+     *            the codec the values were written with
+     * @return the loaded map
+     * @throws IOException
+     */
+    public static <K, V> SetMultiMap<K, V> readSet(File file,
+            Codec<? extends K> keyCodec, Codec<? extends V> valueCodec)
+            throws IOException {
+        final SetMultiMap<K, V> multimap = new SetMultiMap<K, V>();
+        read(file, keyCodec, valueCodec, multimap);
+        return multimap;
+    }
+
+    /**
+     * Saves a multimap to a file, replacing anything already in it. The map
+     * shouldn't change while it's being saved.
+     * 
+     * @param multimap
+     *            the multimap to save
+     * @param file
+     *            the file to save it to
+     * @param keyCodec
+     *            the codec to write the keys with
+     * @param valueCodec
+     *            the codec to write the values with
+     * @throws IOException
+     */
+    public static <K, V> void write(MultiMap<K, V> multimap, File file,
+            Codec<? super K> keyCodec, Codec<? super V> valueCodec)
+            throws IOException {
+        final ChannelFileWriter writer = new ChannelFileWriter(file);
+        try {
+            final Output out = new Output(writer);
+            out.buffer.putInt(MAGIC).putInt(VERSION);
+
+            long keys = 0;
+            long values = 0;
+            for(final K key : multimap.keySet()) {
+                // A concurrent map's key can go away between keySet and get
+                final Collection<V> group = multimap.get(key);
+                if(group == null) {
+                    continue;
+                }
+
+                out.write(keyCodec, key);
+                out.writeCount(group.size());
+                for(final V value : group) {
+                    out.write(valueCodec, value);
+                }
+                keys++;
+                values += group.size();
+            }
+
+            if(out.buffer.remaining() < TRAILER_SIZE) {
+                out.flush();
+            }
+            out.buffer.putLong(keys).putLong(values).putInt(MAGIC);
+            out.flush();
+        }
+        finally {
+            writer.close();
+        }
+    }
+}
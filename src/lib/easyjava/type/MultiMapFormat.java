@@ -0,0 +1,83 @@
+package lib.easyjava.type;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collection;
+
+/**
+ * Renders multimaps as text, one key per line with its values after it. The
+ * text goes through one StringBuilder, so it takes time linear in its length,
+ * and when it's bound for something other than a StringBuilder it's handed
+ * over in batches. That way the whole rendering is never in memory at once,
+ * and a destination that does work on every call, like a FileWriter that
+ * flushes on every write, only gets a call per batch.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class MultiMapFormat {
+    private static final int BATCH_SIZE = 8192;
+
+    /**
+     * Renders a multimap onto the end of an Appendable
+     * 
+     * @param multimap
+     *            the multimap
+     * @param out
+     *            where to put the text
+     * @throws IOException
+     */
+    static <K, V> void appendTo(MultiMap<K, V> multimap, Appendable out)
+            throws IOException {
+        final StringBuilder batch = out instanceof StringBuilder
+                ? (StringBuilder) out : new StringBuilder(BATCH_SIZE * 2);
+
+        batch.append('{');
+        for(final K key : multimap.keySet()) {
+            // A concurrent map's key can go away between keySet and get
+            final Collection<V> values = multimap.get(key);
+            if(values == null) {
+                continue;
+            }
+
+            batch.append("\n\t").append(key).append(": ");
+            boolean first = true;
+            for(final V value : values) {
+                if(!first) {
+                    batch.append(", ");
+                }
+                batch.append(value);
+                first = false;
+
+                if(batch != out && batch.length() >= BATCH_SIZE) {
+                    out.append(batch);
+                    batch.setLength(0);
+                }
+            }
+        }
+        batch.append("\n}");
+
+        if(batch != out) {
+            out.append(batch);
+        }
+    }
+
+    /**
+     * Renders a multimap as a String
+     * 
+     * @param multimap
+     *            the multimap
+     * @return the text
+     */
+    static <K, V> String toString(MultiMap<K, V> multimap) {
+        final StringBuilder result = new StringBuilder();
+        try {
+            appendTo(multimap, result);
+        }
+        catch(final IOException e) {
+            // StringBuilder never throws these
+            throw new UncheckedIOException(e);
+        }
+
+        return result.toString();
+    }
+}
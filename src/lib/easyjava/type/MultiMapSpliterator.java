@@ -0,0 +1,171 @@
+package lib.easyjava.type;
+
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splits the entries of a multimap that keeps a collection per key. It splits
+ * along the backing map's own spliterator, which for HashMap and
+ * ConcurrentHashMap means by hash bucket. Once the keys can't be split, it
+ * splits the values of the key it's on instead, so one huge key doesn't end
+ * up on one thread. Nothing is copied; the only allocation per element is
+ * the entry handed to the action.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+class MultiMapSpliterator<K, V> implements Spliterator<Entry<K, V>>,
+        Consumer<V> {
+    private final int characteristics;
+    private final Spliterator<? extends Entry<K, ? extends Collection<V>>>
+            entries;
+    private long estimate;
+    private boolean exact;
+    private K key;
+    private final Consumer<Entry<K, ? extends Collection<V>>> nextKey;
+    private V value;
+    private Spliterator<V> values;
+
+    /**
+     * @param map
+     *            the multimap's collection of values for each key
+     * @param size
+     *            the number of values in the multimap
+     * @param characteristics
+     *            DISTINCT for maps that can't hold a value twice under a key,
+     *            CONCURRENT for maps that can change while they're split and
+     *            ORDERED for maps that keep their keys and values in order
+     */
+    MultiMapSpliterator(Map<K, ? extends Collection<V>> map, long size,
+            int characteristics) {
+        this(map.entrySet().spliterator(), null, null, size,
+                (characteristics & CONCURRENT) == 0, characteristics);
+    }
+
+    private MultiMapSpliterator(
+            Spliterator<? extends Entry<K, ? extends Collection<V>>> entries,
+            K key, Spliterator<V> values, long estimate, boolean exact,
+            int characteristics) {
+        this.entries = entries;
+        this.key = key;
+        this.values = values;
+        this.estimate = estimate;
+        this.exact = exact;
+        this.characteristics = characteristics | NONNULL;
+        nextKey = new Consumer<Entry<K, ? extends Collection<V>>>() {
+            @Override
+            public void accept(Entry<K, ? extends Collection<V>> entry) {
+                MultiMapSpliterator.this.key = entry.getKey();
+                MultiMapSpliterator.this.values = entry.getValue()
+                        .spliterator();
+            }
+        };
+    }
+
+    /**
+     * Takes the next value from the current key's values. Only the
+     * spliterator itself should call this.
+     * 
+     * @param value
+     *            the value
+     */
+    @Override
+    public void accept(V value) {
+        this.value = value;
+    }
+
+    @Override
+    public int characteristics() {
+        // Like HashMap's, only exact until it's been split
+        return exact ? characteristics | SIZED : characteristics;
+    }
+
+    @Override
+    public long estimateSize() {
+        return estimate;
+    }
+
+    @Override
+    public void forEachRemaining(final Consumer<? super Entry<K, V>> action) {
+        final Consumer<V> entry = new Consumer<V>() {
+            @Override
+            public void accept(V value) {
+                action.accept(new AbstractMap.SimpleImmutableEntry<K, V>(key,
+                        value));
+            }
+        };
+
+        do {
+            if(values != null) {
+                values.forEachRemaining(entry);
+                values = null;
+            }
+        }
+        while(entries != null && entries.tryAdvance(nextKey));
+        estimate = 0;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Entry<K, V>> action) {
+        while(values == null || !values.tryAdvance(this)) {
+            values = null;
+            if(entries == null || !entries.tryAdvance(nextKey)) {
+                return false;
+            }
+        }
+
+        if(estimate > 0) {
+            estimate--;
+        }
+        action.accept(new AbstractMap.SimpleImmutableEntry<K, V>(key, value));
+        value = null;
+        return true;
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> trySplit() {
+        if(entries != null) {
+            final Spliterator<? extends Entry<K, ? extends Collection<V>>>
+                    prefix = entries.trySplit();
+            if(prefix != null) {
+                // Share the values out the way the keys were shared out
+                final long prefixKeys = prefix.estimateSize();
+                final long keys = prefixKeys + entries.estimateSize();
+                final long prefixEstimate = keys == 0 ? 0
+                        : (long) ((double) estimate * prefixKeys / keys);
+                estimate -= prefixEstimate;
+                exact = false;
+                return new MultiMapSpliterator<K, V>(prefix, null, null,
+                        prefixEstimate, false, characteristics);
+            }
+
+            // The keys are down to one bucket, so move on to the next key to
+            // split its values, which a fresh spliterator hasn't loaded yet
+            if(values == null) {
+                entries.tryAdvance(nextKey);
+            }
+        }
+
+        if(values != null) {
+            final Spliterator<V> prefix = values.trySplit();
+            if(prefix != null) {
+                final long prefixEstimate = Math.min(prefix.estimateSize(),
+                        estimate);
+                estimate -= prefixEstimate;
+                exact = false;
+                return new MultiMapSpliterator<K, V>(null, key, prefix,
+                        prefixEstimate, false, characteristics);
+            }
+        }
+
+        return null;
+    }
+}
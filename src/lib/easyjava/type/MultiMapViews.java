@@ -0,0 +1,185 @@
+package lib.easyjava.type;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+
+/**
+ * Live entries() and values() views for the multimaps that keep a collection
+ * per key. The views copy nothing: they walk the map's collections as they're
+ * iterated, get their size from the multimap and answer contains through it,
+ * and, for the maps that allow it, removing through their iterators removes
+ * from the map.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class MultiMapViews {
+    private static class ValueIterator<K, V> implements Iterator<V> {
+        private Collection<V> collection;
+        private final Iterator<? extends Entry<K, ? extends Collection<V>>>
+                entries;
+        private K key;
+        private Iterator<V> last;
+        private K lastKey;
+        private final boolean removable;
+        private Iterator<V> values;
+
+        private ValueIterator(Map<K, ? extends Collection<V>> map,
+                boolean removable) {
+            this.removable = removable;
+            entries = map.entrySet().iterator();
+            values = Collections.<V> emptyIterator();
+        }
+
+        private boolean advance() {
+            while(!values.hasNext()) {
+                if(!entries.hasNext()) {
+                    return false;
+                }
+                final Entry<K, ? extends Collection<V>> entry = entries.next();
+                key = entry.getKey();
+                collection = entry.getValue();
+                values = collection.iterator();
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean hasNext() {
+            // The maps that allow removing never hold an empty collection, so
+            // there's no need to move on to the next key yet, which would
+            // leave remove unable to take out the current one
+            if(removable) {
+                return values.hasNext() || entries.hasNext();
+            }
+
+            return advance();
+        }
+
+        @Override
+        public V next() {
+            if(!advance()) {
+                throw new NoSuchElementException();
+            }
+
+            last = values;
+            lastKey = key;
+            return values.next();
+        }
+
+        @Override
+        public void remove() {
+            if(!removable) {
+                throw new UnsupportedOperationException();
+            }
+            if(last == null) {
+                throw new IllegalStateException();
+            }
+
+            // A key goes with its last value, and taking it out through the
+            // map's iterator keeps that iterator usable
+            if(collection.size() == 1) {
+                entries.remove();
+            }
+            last.remove();
+            last = null;
+        }
+    }
+
+    /**
+     * Gets a live view of a multimap's key/value pairs
+     * 
+     * @param multimap
+     *            the multimap
+     * @param map
+     *            the multimap's collection of values for each key
+     * @param removable
+     *            whether entries can be removed through the view
+     * @return the entries
+     */
+    static <K, V> Collection<Entry<K, V>> entries(
+            final MultiMap<K, V> multimap,
+            final Map<K, ? extends Collection<V>> map,
+            final boolean removable) {
+        return new AbstractCollection<Entry<K, V>>() {
+            @Override
+            public boolean contains(Object o) {
+                if(!(o instanceof Entry)) {
+                    return false;
+                }
+
+                final Entry<?, ?> entry = (Entry<?, ?>) o;
+                final Collection<V> vals = map.get(entry.getKey());
+                return vals != null && vals.contains(entry.getValue());
+            }
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final ValueIterator<K, V> values = new ValueIterator<K, V>(
+                        map, removable);
+                return new Iterator<Entry<K, V>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return values.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        final V value = values.next();
+                        return new AbstractMap.SimpleImmutableEntry<K, V>(
+                                values.lastKey, value);
+                    }
+
+                    @Override
+                    public void remove() {
+                        values.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return multimap.size();
+            }
+        };
+    }
+
+    /**
+     * Gets a live view of a multimap's values
+     * 
+     * @param multimap
+     *            the multimap
+     * @param map
+     *            the multimap's collection of values for each key
+     * @param removable
+     *            whether values can be removed through the view
+     * @return the values
+     */
+    static <K, V> Collection<V> values(final MultiMap<K, V> multimap,
+            final Map<K, ? extends Collection<V>> map,
+            final boolean removable) {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return multimap.containsValue((V) o);
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return new ValueIterator<K, V>(map, removable);
+            }
+
+            @Override
+            public int size() {
+                return multimap.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,174 @@
+package lib.easyjava.type;
+
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+
+/**
+ * A multimap that keeps its keys sorted, so it can find the keys nearest a
+ * given one and hand out views of a range of keys without sorting anything.
+ * It follows NavigableMap: the range views are backed by the map, so changes
+ * to one show up in the other, and putting a key outside a view's range into
+ * it throws an IllegalArgumentException.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public interface NavigableMultiMap<K, V> extends MultiMap<K, V> {
+    /**
+     * Gets the least key greater than or equal to the given key
+     * 
+     * @param key
+     *            the key
+     * @return the key or null if there isn't one
+     */
+    public K ceilingKey(K key);
+
+    /**
+     * Gets the comparator that orders the keys
+     * 
+     * @return the comparator or null if the keys are in their natural order
+     */
+    public Comparator<? super K> comparator();
+
+    /**
+     * Gets a view of the map with its keys in the opposite order
+     * 
+     * @return the view
+     */
+    public NavigableMultiMap<K, V> descendingMap();
+
+    /**
+     * Gets the lowest key
+     * 
+     * @return the key
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public K firstKey();
+
+    /**
+     * Gets the greatest key less than or equal to the given key
+     * 
+     * @param key
+     *            the key
+     * @return the key or null if there isn't one
+     */
+    public K floorKey(K key);
+
+    /**
+     * Gets a view of the part of the map with keys less than the given key
+     * 
+     * @param toKey
+     *            the end of the range
+     * @return the view
+     */
+    public default NavigableMultiMap<K, V> headMap(K toKey) {
+        return headMap(toKey, false);
+    }
+
+    /**
+     * Gets a view of the part of the map with keys less than, or if
+     * inclusive is set equal to, the given key
+     * 
+     * @param toKey
+     *            the end of the range
+     * @param inclusive
+     *            whether the range includes toKey
+     * @return the view
+     */
+    public NavigableMultiMap<K, V> headMap(K toKey, boolean inclusive);
+
+    /**
+     * Gets the least key strictly greater than the given key
+     * 
+     * @param key
+     *            the key
+     * @return the key or null if there isn't one
+     */
+    public K higherKey(K key);
+
+    /**
+     * Gets the keys in the map, in order
+     * 
+     * @return the keys
+     */
+    @Override
+    public NavigableSet<K> keySet();
+
+    /**
+     * Gets the highest key
+     * 
+     * @return the key
+     * @throws NoSuchElementException
+     *             if the map is empty
+     */
+    public K lastKey();
+
+    /**
+     * Gets the greatest key strictly less than the given key
+     * 
+     * @param key
+     *            the key
+     * @return the key or null if there isn't one
+     */
+    public K lowerKey(K key);
+
+    /**
+     * Gets a view of the part of the map with keys from fromKey up to but
+     * not including toKey
+     * 
+     * @param fromKey
+     *            the start of the range
+     * @param toKey
+     *            the end of the range
+     * @return the view
+     */
+    public default NavigableMultiMap<K, V> subMap(K fromKey, K toKey) {
+        return subMap(fromKey, true, toKey, false);
+    }
+
+    /**
+     * Gets a view of the part of the map with keys between two keys
+     * 
+     * @param fromKey
+     *            the start of the range
+     * @param fromInclusive
+     *            whether the range includes fromKey
+     * @param toKey
+     *            the end of the range
+     * @param toInclusive
+     *            whether the range includes toKey
+     * @return the view
+     */
+    public NavigableMultiMap<K, V> subMap(K fromKey, boolean fromInclusive,
+            K toKey, boolean toInclusive);
+
+    /**
+     * Gets a view of the part of the map with keys greater than or equal to
+     * the given key
+     * 
+     * @param fromKey
+     *            the start of the range
+     * @return the view
+     */
+    public default NavigableMultiMap<K, V> tailMap(K fromKey) {
+        return tailMap(fromKey, true);
+    }
+
+    /**
+     * Gets a view of the part of the map with keys greater than, or if
+     * inclusive is set equal to, the given key
+     * 
+     * @param fromKey
+     *            the start of the range
+     * @param inclusive
+     *            whether the range includes fromKey
+     * @return the view
+     */
+    public NavigableMultiMap<K, V> tailMap(K fromKey, boolean inclusive);
+}
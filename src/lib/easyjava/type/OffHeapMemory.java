@@ -0,0 +1,294 @@
+package lib.easyjava.type;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A flat, growable range of bytes outside the Java heap, addressed by long
+ * offsets. It's made of fixed size pages that are either direct ByteBuffers or
+ * regions of a memory-mapped file, so it can get bigger than one ByteBuffer
+ * can. Nothing read or written through it is ever on the heap for the garbage
+ * collector to scan. Callers have to keep each thing they store inside one
+ * page.
+ * 
+ * In a file, the last page is only mapped as far as it's needed, and is mapped
+ * again at double the size when it fills. The file grows with what's stored
+ * in it rather than a whole page at a time. The smaller mappings it leaves
+ * behind stay valid until they're garbage collected.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ */
+class OffHeapMemory implements Closeable {
+    private static final int MIN_MAPPING = 1 << 16;
+    private static final byte[] ZEROS = new byte[4096];
+
+    private final FileChannel channel;
+    private int pageCount;
+    private ByteBuffer[] pages;
+    private final int pageShift;
+
+    /**
+     * Keeps the bytes in direct ByteBuffers
+     * 
+     * @param pageShift
+     *            the log base 2 of the page size
+     */
+    OffHeapMemory(int pageShift) {
+        this.pageShift = pageShift;
+        channel = null;
+        pages = new ByteBuffer[1];
+    }
+
+    /**
+     * Keeps the bytes in a memory-mapped file, starting with whatever the file
+     * already holds
+     * 
+     * @param file
+     *            the file
+     * @param pageShift
+     *            the log base 2 of the page size
+     * @throws IOException
+     */
+    OffHeapMemory(File file, int pageShift) throws IOException {
+        this.pageShift = pageShift;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        pages = new ByteBuffer[1];
+
+        // Map exactly what's there, so opening a file never grows it
+        final long size = channel.size();
+        while(length() < size) {
+            map(Math.min(size - pageStart(), pageSize()));
+        }
+    }
+
+    private void addPage(ByteBuffer page) {
+        if(pageCount == pages.length) {
+            pages = Arrays.copyOf(pages, pageCount * 2);
+        }
+        pages[pageCount++] = page;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(channel != null) {
+            force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Makes sure the memory reaches at least a given length, adding zeroed
+     * pages as needed
+     * 
+     * @param length
+     *            the length in bytes
+     * @throws IOException
+     */
+    void ensure(long length) throws IOException {
+        while(length() < length) {
+            if(channel == null) {
+                addPage(ByteBuffer.allocateDirect(pageSize()));
+                continue;
+            }
+
+            final ByteBuffer last = pageCount == 0 ? null
+                    : pages[pageCount - 1];
+            if(last != null && last.capacity() < pageSize()) {
+                // Map the last page again, bigger
+                pageCount--;
+            }
+            long size = last == null || last.capacity() == pageSize()
+                    ? MIN_MAPPING : last.capacity() * 2L;
+            while(pageStart() + size < length) {
+                size <<= 1;
+            }
+            map(Math.min(size, pageSize()));
+        }
+    }
+
+    /**
+     * Writes any changes to a memory-mapped file out to the disk
+     */
+    void force() {
+        if(channel != null) {
+            for(int i = 0; i < pageCount; i++) {
+                ((MappedByteBuffer) pages[i]).force();
+            }
+        }
+    }
+
+    /**
+     * Gets an int
+     * 
+     * @param address
+     *            where the int starts
+     * @return the int
+     */
+    int getInt(long address) {
+        return page(address).getInt(offset(address));
+    }
+
+    /**
+     * Gets a long
+     * 
+     * @param address
+     *            where the long starts
+     * @return the long
+     */
+    long getLong(long address) {
+        return page(address).getLong(offset(address));
+    }
+
+    /**
+     * Gets the number of bytes the memory holds
+     * 
+     * @return the length
+     */
+    long length() {
+        if(pageCount == 0) {
+            return 0;
+        }
+
+        return pageStart() - pageSize() + pages[pageCount - 1].capacity();
+    }
+
+    private void map(long size) throws IOException {
+        // Mapping past the end grows the file
+        addPage(channel.map(FileChannel.MapMode.READ_WRITE, pageStart(), size));
+    }
+
+    /**
+     * Checks whether some bytes are stored at an address
+     * 
+     * @param address
+     *            where the stored bytes start
+     * @param bytes
+     *            the bytes to compare, starting at index 0
+     * @param length
+     *            how many bytes to compare
+     * @return whether they're the same
+     */
+    boolean matches(long address, ByteBuffer bytes, int length) {
+        final ByteBuffer page = page(address);
+        final int offset = offset(address);
+        int i = 0;
+        for(; i + 8 <= length; i += 8) {
+            if(page.getLong(offset + i) != bytes.getLong(i)) {
+                return false;
+            }
+        }
+        for(; i < length; i++) {
+            if(page.get(offset + i) != bytes.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int offset(long address) {
+        return (int) (address & (1L << pageShift) - 1);
+    }
+
+    private ByteBuffer page(long address) {
+        return pages[(int) (address >>> pageShift)];
+    }
+
+    /**
+     * Gets the size of each page, which is the most that can be stored in one
+     * piece
+     * 
+     * @return the page size in bytes
+     */
+    int pageSize() {
+        return 1 << pageShift;
+    }
+
+    // Where the next page would start
+    private long pageStart() {
+        return (long) pageCount << pageShift;
+    }
+
+    /**
+     * Copies bytes in
+     * 
+     * @param address
+     *            where to put them
+     * @param bytes
+     *            the bytes, starting at index 0
+     * @param length
+     *            how many bytes to copy
+     */
+    void put(long address, ByteBuffer bytes, int length) {
+        final ByteBuffer source = bytes.duplicate();
+        source.position(0).limit(length);
+        final ByteBuffer target = page(address).duplicate();
+        target.position(offset(address));
+        target.put(source);
+    }
+
+    /**
+     * Sets an int
+     * 
+     * @param address
+     *            where the int starts
+     * @param value
+     *            the int
+     */
+    void putInt(long address, int value) {
+        page(address).putInt(offset(address), value);
+    }
+
+    /**
+     * Sets a long
+     * 
+     * @param address
+     *            where the long starts
+     * @param value
+     *            the long
+     */
+    void putLong(long address, long value) {
+        page(address).putLong(offset(address), value);
+    }
+
+    /**
+     * Gets a view of some of the bytes, for a codec to read
+     * 
+     * @param address
+     *            where the bytes start
+     * @param length
+     *            how many bytes to include
+     * @return a buffer positioned at the bytes and limited to them
+     */
+    ByteBuffer slice(long address, int length) {
+        final ByteBuffer view = page(address).duplicate();
+        final int offset = offset(address);
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    /**
+     * Sets bytes to 0
+     * 
+     * @param address
+     *            where the bytes start
+     * @param length
+     *            how many bytes to clear
+     */
+    void zero(long address, int length) {
+        final ByteBuffer target = page(address).duplicate();
+        target.position(offset(address));
+        while(length > 0) {
+            final int count = Math.min(length, ZEROS.length);
+            target.put(ZEROS, 0, count);
+            length -= count;
+        }
+    }
+}
@@ -0,0 +1,867 @@
+package lib.easyjava.type;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/**
+ * A multimap that disallows duplicate values under the same key, like
+ * SetMultiMap, but keeps its keys and values outside the Java heap, so however
+ * big it gets the garbage collector never has to scan it. Keys and values are
+ * stored as the bytes their codecs write, either in direct ByteBuffers or in a
+ * memory-mapped file. A map in a file can be opened again later, by this
+ * program or another one, and used straight away without being rebuilt.
+ * 
+ * Each key is stored once, with a linked list of its values, and two open
+ * addressing tables, one of keys and one of key/value pairs, find them by a
+ * hash of their bytes. The tables live in the same memory, so nothing but a
+ * few fields is ever on the heap. Keys and values are compared by their bytes,
+ * so codecs have to write equal values the same way. Getting values out
+ * decodes them, so get and remove return copies, and the keySet(), values()
+ * and entries() views decode as they're iterated and can't change the map.
+ * 
+ * The space a removed key and its values took up, like the space of tables
+ * that have been outgrown, isn't reused until the map is cleared. The map
+ * isn't safe to use from more than one thread at a time, and direct memory is
+ * limited by the JVM's -XX:MaxDirectMemorySize setting.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class OffHeapSetMultiMap<K, V> implements MultiMap<K, V>, Closeable {
+    /**
+     * Walks the value records, key by key
+     */
+    private class RecordIterator {
+        private long key;
+        private long next;
+        private long slot;
+
+        private boolean hasNext() {
+            while(next == 0) {
+                if(slot == keys.slots()) {
+                    return false;
+                }
+
+                final long entry = keys.get(slot++);
+                if(entry != 0) {
+                    key = entry & ADDRESS_MASK;
+                    next = memory.getLong(key + KEY_FIRST);
+                }
+            }
+
+            return true;
+        }
+
+        private long next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            final long record = next;
+            next = memory.getLong(record + VALUE_NEXT);
+            return record;
+        }
+    }
+
+    /**
+     * An open addressing table of record addresses, laid out in pages of the
+     * map's memory so it can outgrow one page
+     */
+    private class Table {
+        private final long directory;
+        private final long mask;
+        private final long[] pages;
+        private final int slotShift;
+
+        private Table(long slots) {
+            mask = slots - 1;
+            slotShift = Integer.numberOfTrailingZeros(memory.pageSize()) - 3;
+
+            final int pageBytes = (int) Math.min(slots << 3, memory
+                    .pageSize());
+            pages = new long[(int) Math.max(slots >>> slotShift, 1)];
+            for(int i = 0; i < pages.length; i++) {
+                pages[i] = allocate(pageBytes);
+                memory.zero(pages[i], pageBytes);
+            }
+
+            directory = allocate(pages.length << 3);
+            for(int i = 0; i < pages.length; i++) {
+                memory.putLong(directory + (i << 3), pages[i]);
+            }
+        }
+
+        private Table(long directory, long slots) {
+            this.directory = directory;
+            mask = slots - 1;
+            slotShift = Integer.numberOfTrailingZeros(memory.pageSize()) - 3;
+
+            pages = new long[(int) Math.max(slots >>> slotShift, 1)];
+            for(int i = 0; i < pages.length; i++) {
+                pages[i] = memory.getLong(directory + (i << 3));
+            }
+        }
+
+        private long address(long slot) {
+            return pages[(int) (slot >>> slotShift)]
+                    + ((slot & (1L << slotShift) - 1) << 3);
+        }
+
+        private long get(long slot) {
+            return memory.getLong(address(slot));
+        }
+
+        private long home(int hash) {
+            return hash & 0xffffffffL & mask;
+        }
+
+        private void set(long slot, long entry) {
+            memory.putLong(address(slot), entry);
+        }
+
+        private long slots() {
+            return mask + 1;
+        }
+    }
+
+    // Table entries keep the top of the hash above the record's address, so
+    // most mismatches are caught without reading the record
+    private static final long ADDRESS_MASK = (1L << 48) - 1;
+    private static final int DIRECT_PAGE_SHIFT = 24;
+    private static final int FILE_PAGE_SHIFT = 30;
+    // Where the header keeps the fields it saves
+    private static final int HEADER_ENTRY_SLOTS = 56;
+    private static final int HEADER_ENTRY_TABLE = 48;
+    private static final int HEADER_KEY_COUNT = 16;
+    private static final int HEADER_KEY_SLOTS = 40;
+    private static final int HEADER_KEY_TABLE = 32;
+    private static final int HEADER_LENGTH = 64;
+    private static final int HEADER_SIZE = 24;
+    private static final int HEADER_TOP = 8;
+    // Where key records keep their fields, ahead of the key's bytes
+    private static final int KEY_BYTES = 20;
+    private static final int KEY_FIRST = 0;
+    private static final int KEY_HASH = 8;
+    private static final int KEY_LENGTH = 16;
+    private static final int KEY_VALUES = 12;
+    private static final int MAGIC = 0x454a4f48;
+    private static final int MIN_SLOTS = 16;
+    private static final int TAG_SHIFT = 48;
+    // Where value records keep their fields, ahead of the value's bytes
+    private static final int VALUE_BYTES = 24;
+    private static final int VALUE_HASH = 16;
+    private static final int VALUE_KEY = 8;
+    private static final int VALUE_LENGTH = 20;
+    private static final int VALUE_NEXT = 0;
+    private static final int VERSION = 1;
+
+    private static <T> ByteBuffer encode(Codec<T> codec, T value,
+            ByteBuffer buffer) {
+        while(true) {
+            buffer.clear();
+            try {
+                codec.write(value, buffer);
+                return buffer;
+            }
+            catch(final BufferOverflowException e) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private static long entry(long record, int hash) {
+        return (long) (hash >>> 16) << TAG_SHIFT | record;
+    }
+
+    private static int hash(ByteBuffer bytes, int length) {
+        long h = length;
+        int i = 0;
+        for(; i + 8 <= length; i += 8) {
+            h = (h ^ bytes.getLong(i)) * 0x9e3779b97f4a7c15L;
+            h ^= h >>> 32;
+        }
+        for(; i < length; i++) {
+            h = (h ^ bytes.get(i)) * 0x9e3779b97f4a7c15L;
+        }
+
+        return mix((int) (h ^ h >>> 32));
+    }
+
+    private static int mix(int h) {
+        // Murmur3's finalizer, as in IntKeyIndex
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ h >>> 16;
+    }
+
+    private Table entries;
+    private int keyCount;
+    private ByteBuffer keyBytes;
+    private final Codec<K> keyCodec;
+    private Table keys;
+    private final OffHeapMemory memory;
+    private long size;
+    private long top;
+    private ByteBuffer valueBytes;
+    private final Codec<V> valueCodec;
+
+    /**
+     * Keeps the map in direct ByteBuffers
+     * 
+     * @param keyCodec
+     *            the codec for the keys
+     * @param valueCodec
+     *            the codec for the values
+     */
+    public OffHeapSetMultiMap(Codec<K> keyCodec, Codec<V> valueCodec) {
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        memory = new OffHeapMemory(DIRECT_PAGE_SHIFT);
+        keyBytes = ByteBuffer.allocate(64);
+        valueBytes = ByteBuffer.allocate(64);
+        reset();
+    }
+
+    /**
+     * Keeps the map in a memory-mapped file. If the file already holds a map,
+     * this opens it with everything in it, so the codecs have to be the ones
+     * it was made with.
+     * 
+     * @param file
+     *            the file
+     * @param keyCodec
+     *            the codec for the keys
+     * @param valueCodec
+     *            the codec for the values
+     * @throws IOException
+     */
+    public OffHeapSetMultiMap(File file, Codec<K> keyCodec,
+            Codec<V> valueCodec) throws IOException {
+        // A file too short for the header can't be a map, so it's turned away
+        // before the map starts growing it
+        final long length = file.length();
+        if(length != 0 && length < HEADER_LENGTH) {
+            throw new IOException("Not a multimap file: "
+                    + file.getAbsolutePath());
+        }
+
+        this.keyCodec = keyCodec;
+        this.valueCodec = valueCodec;
+        memory = new OffHeapMemory(file, FILE_PAGE_SHIFT);
+        keyBytes = ByteBuffer.allocate(64);
+        valueBytes = ByteBuffer.allocate(64);
+
+        if(memory.length() == 0) {
+            reset();
+            return;
+        }
+
+        if(memory.getInt(0) != MAGIC) {
+            memory.close();
+            throw new IOException("Not a multimap file: "
+                    + file.getAbsolutePath());
+        }
+        final int version = memory.getInt(4);
+        if(version != VERSION) {
+            memory.close();
+            throw new IOException("Unsupported multimap file version "
+                    + version + " in " + file.getAbsolutePath());
+        }
+
+        top = memory.getLong(HEADER_TOP);
+        keyCount = (int) memory.getLong(HEADER_KEY_COUNT);
+        size = memory.getLong(HEADER_SIZE);
+        keys = new Table(memory.getLong(HEADER_KEY_TABLE), memory
+                .getLong(HEADER_KEY_SLOTS));
+        entries = new Table(memory.getLong(HEADER_ENTRY_TABLE), memory
+                .getLong(HEADER_ENTRY_SLOTS));
+    }
+
+    private boolean add(long key, V value) {
+        valueBytes = encode(valueCodec, value, valueBytes);
+        final int length = valueBytes.position();
+        final int hash = mix(memory.getInt(key + KEY_HASH) * 31
+                + hash(valueBytes, length));
+        if(entrySlot(key, hash, length) >= 0) {
+            return false;
+        }
+
+        if(size >= entries.slots() >> 1) {
+            entries = rehash(entries, VALUE_HASH);
+        }
+        final long record = allocate(VALUE_BYTES + length);
+        memory.putLong(record + VALUE_NEXT, memory.getLong(key + KEY_FIRST));
+        memory.putLong(record + VALUE_KEY, key);
+        memory.putInt(record + VALUE_HASH, hash);
+        memory.putInt(record + VALUE_LENGTH, length);
+        memory.put(record + VALUE_BYTES, valueBytes, length);
+        memory.putLong(key + KEY_FIRST, record);
+        memory.putInt(key + KEY_VALUES, memory.getInt(key + KEY_VALUES) + 1);
+        insert(entries, entry(record, hash), hash);
+        size++;
+        return true;
+    }
+
+    private long allocate(int length) {
+        final int pageSize = memory.pageSize();
+        if(length > pageSize) {
+            throw new IllegalArgumentException("Can't store " + length
+                    + " bytes in one piece");
+        }
+
+        // Keep longs aligned and never split anything across pages
+        long address = top + 7 & ~7L;
+        if((address & pageSize - 1) + length > pageSize) {
+            address = (address | pageSize - 1) + 1;
+        }
+        try {
+            memory.ensure(address + length);
+        }
+        catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        top = address + length;
+        return address;
+    }
+
+    /**
+     * Removes every key and value, making all of the map's memory available
+     * again
+     */
+    @Override
+    public void clear() {
+        reset();
+    }
+
+    /**
+     * Writes the map out to its file, if it has one, and lets go of the file.
+     * The map can't be used after it's closed.
+     * 
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        memory.close();
+    }
+
+    /**
+     * Checks whether a key has a value
+     * 
+     * @param key
+     *            the key
+     * @param value
+     *            the value
+     * @return whether the value is stored under the key
+     */
+    public boolean containsEntry(K key, V value) {
+        final long record = keyRecord(key, false);
+        if(record == 0) {
+            return false;
+        }
+
+        valueBytes = encode(valueCodec, value, valueBytes);
+        final int length = valueBytes.position();
+        final int hash = mix(memory.getInt(record + KEY_HASH) * 31
+                + hash(valueBytes, length));
+        return entrySlot(record, hash, length) >= 0;
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return keySlot(key) >= 0;
+    }
+
+    /**
+     * Checks whether any key has a value. This compares the value's bytes
+     * with every value in the map, but doesn't decode any of them.
+     * 
+     * @param value
+     *            the value
+     * @return whether the value is in the map
+     */
+    @Override
+    public boolean containsValue(V value) {
+        valueBytes = encode(valueCodec, value, valueBytes);
+        final int length = valueBytes.position();
+
+        final RecordIterator records = new RecordIterator();
+        while(records.hasNext()) {
+            final long record = records.next();
+            if(memory.getInt(record + VALUE_LENGTH) == length
+                    && memory.matches(record + VALUE_BYTES, valueBytes,
+                            length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public Collection<Entry<K, V>> entries() {
+        return new AbstractCollection<Entry<K, V>>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                if(!(o instanceof Entry)) {
+                    return false;
+                }
+
+                final Entry<?, ?> entry = (Entry<?, ?>) o;
+                return containsEntry((K) entry.getKey(), (V) entry
+                        .getValue());
+            }
+
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                final RecordIterator records = new RecordIterator();
+                return new Iterator<Entry<K, V>>() {
+                    private K key;
+                    private long keyRecord;
+
+                    @Override
+                    public boolean hasNext() {
+                        return records.hasNext();
+                    }
+
+                    @Override
+                    public Entry<K, V> next() {
+                        final long record = records.next();
+                        if(records.key != keyRecord) {
+                            keyRecord = records.key;
+                            key = key(keyRecord);
+                        }
+
+                        return new AbstractMap.SimpleImmutableEntry<K, V>(key,
+                                value(record));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OffHeapSetMultiMap.this.size();
+            }
+        };
+    }
+
+    private long entrySlot(long key, int hash, int length) {
+        long slot = entries.home(hash);
+        long entry;
+        while((entry = entries.get(slot)) != 0) {
+            if(entry >>> TAG_SHIFT == hash >>> 16) {
+                final long record = entry & ADDRESS_MASK;
+                if(memory.getLong(record + VALUE_KEY) == key
+                        && memory.getInt(record + VALUE_HASH) == hash
+                        && memory.getInt(record + VALUE_LENGTH) == length
+                        && memory.matches(record + VALUE_BYTES, valueBytes,
+                                length)) {
+                    return slot;
+                }
+            }
+            slot = slot + 1 & entries.mask;
+        }
+
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof OffHeapSetMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("unchecked")
+        final OffHeapSetMultiMap<K, V> other = (OffHeapSetMultiMap<K, V>) obj;
+
+        if(keyCount != other.keyCount || size != other.size) {
+            return false;
+        }
+        try {
+            for(final Entry<K, V> entry : other.entries()) {
+                if(!containsEntry(entry.getKey(), entry.getValue())) {
+                    return false;
+                }
+            }
+        }
+        catch(final ClassCastException e) {
+            // The other map holds types this map's codecs can't write
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Writes any changes out to the map's file, if it has one
+     */
+    public void force() {
+        memory.force();
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        final RecordIterator records = new RecordIterator();
+        K key = null;
+        long keyRecord = 0;
+        while(records.hasNext()) {
+            final long record = records.next();
+            if(records.key != keyRecord) {
+                keyRecord = records.key;
+                key = key(keyRecord);
+            }
+            action.accept(key, value(record));
+        }
+    }
+
+    /**
+     * Gets a copy of the values stored for a key
+     * 
+     * @param key
+     *            the key to get values for
+     * @return the key's values or null if there are none
+     */
+    @Override
+    public Set<V> get(K key) {
+        final long record = keyRecord(key, false);
+        return record == 0 ? null : values(record);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 0;
+        for(final Entry<K, V> entry : entries()) {
+            result += entry.hashCode();
+        }
+
+        return result;
+    }
+
+    private void insert(Table table, long entry, int hash) {
+        long slot = table.home(hash);
+        while(table.get(slot) != 0) {
+            slot = slot + 1 & table.mask;
+        }
+        table.set(slot, entry);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    private K key(long record) {
+        return keyCodec.read(memory.slice(record + KEY_BYTES, memory
+                .getInt(record + KEY_LENGTH)));
+    }
+
+    private long keyRecord(K key, boolean create) {
+        final long slot = keySlot(key);
+        if(slot >= 0) {
+            return keys.get(slot) & ADDRESS_MASK;
+        }
+        if(!create) {
+            return 0;
+        }
+
+        if(keyCount >= keys.slots() >> 1) {
+            keys = rehash(keys, KEY_HASH);
+        }
+        final int length = keyBytes.position();
+        final int hash = hash(keyBytes, length);
+        final long record = allocate(KEY_BYTES + length);
+        memory.putLong(record + KEY_FIRST, 0);
+        memory.putInt(record + KEY_HASH, hash);
+        memory.putInt(record + KEY_VALUES, 0);
+        memory.putInt(record + KEY_LENGTH, length);
+        memory.put(record + KEY_BYTES, keyBytes, length);
+        insert(keys, entry(record, hash), hash);
+        keyCount++;
+        return record;
+    }
+
+    @Override
+    public Set<K> keySet() {
+        return new AbstractSet<K>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return containsKey((K) o);
+            }
+
+            @Override
+            public Iterator<K> iterator() {
+                return new Iterator<K>() {
+                    private long slot;
+
+                    @Override
+                    public boolean hasNext() {
+                        while(slot < keys.slots() && keys.get(slot) == 0) {
+                            slot++;
+                        }
+
+                        return slot < keys.slots();
+                    }
+
+                    @Override
+                    public K next() {
+                        if(!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        return key(keys.get(slot++) & ADDRESS_MASK);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keyCount;
+            }
+        };
+    }
+
+    private long keySlot(K key) {
+        keyBytes = encode(keyCodec, key, keyBytes);
+        final int length = keyBytes.position();
+        final int hash = hash(keyBytes, length);
+
+        long slot = keys.home(hash);
+        long entry;
+        while((entry = keys.get(slot)) != 0) {
+            if(entry >>> TAG_SHIFT == hash >>> 16) {
+                final long record = entry & ADDRESS_MASK;
+                if(memory.getInt(record + KEY_HASH) == hash
+                        && memory.getInt(record + KEY_LENGTH) == length
+                        && memory.matches(record + KEY_BYTES, keyBytes,
+                                length)) {
+                    return slot;
+                }
+            }
+            slot = slot + 1 & keys.mask;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Gets the number of key/value pairs in the map, which unlike size()
+     * isn't limited to what fits in an int
+     * 
+     * @return the number of key/value pairs
+     */
+    public long mappingCount() {
+        return size;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        add(keyRecord(key, true), value);
+        writeHeader();
+    }
+
+    @Override
+    public void putAll(K key, Collection<? extends V> values) {
+        if(values.isEmpty()) {
+            return;
+        }
+
+        // Only find the key once for the lot
+        final long record = keyRecord(key, true);
+        for(final V value : values) {
+            add(record, value);
+        }
+        writeHeader();
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void putAll(MultiMap<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entries()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Table rehash(Table table, int hashOffset) {
+        final Table larger = new Table(table.slots() << 1);
+        for(long slot = 0; slot < table.slots(); slot++) {
+            final long entry = table.get(slot);
+            if(entry != 0) {
+                insert(larger, entry, memory.getInt((entry & ADDRESS_MASK)
+                        + hashOffset));
+            }
+        }
+
+        return larger;
+    }
+
+    /**
+     * Removes a key and returns a copy of its values
+     * 
+     * @param key
+     *            the key to remove
+     * @return the key's values or null if there were none
+     */
+    @Override
+    public Set<V> remove(K key) {
+        final long slot = keySlot(key);
+        if(slot < 0) {
+            return null;
+        }
+
+        final long keyRecord = keys.get(slot) & ADDRESS_MASK;
+        final Set<V> removed = values(keyRecord);
+        for(long record = memory.getLong(keyRecord + KEY_FIRST); record != 0;
+                record = memory.getLong(record + VALUE_NEXT)) {
+            final int hash = memory.getInt(record + VALUE_HASH);
+            long entrySlot = entries.home(hash);
+            while((entries.get(entrySlot) & ADDRESS_MASK) != record) {
+                entrySlot = entrySlot + 1 & entries.mask;
+            }
+            removeSlot(entries, entrySlot, VALUE_HASH);
+        }
+        removeSlot(keys, slot, KEY_HASH);
+
+        keyCount--;
+        size -= memory.getInt(keyRecord + KEY_VALUES);
+        writeHeader();
+        return removed;
+    }
+
+    private void removeSlot(Table table, long slot, int hashOffset) {
+        // Shift later entries in the run back into the hole, as long as that
+        // doesn't move them in front of the slot they hash to
+        long hole = slot;
+        long next = slot + 1 & table.mask;
+        long entry;
+        while((entry = table.get(next)) != 0) {
+            final long home = table.home(memory.getInt((entry & ADDRESS_MASK)
+                    + hashOffset));
+            if((next - home & table.mask) >= (next - hole & table.mask)) {
+                table.set(hole, entry);
+                hole = next;
+            }
+            next = next + 1 & table.mask;
+        }
+
+        table.set(hole, 0);
+    }
+
+    private void reset() {
+        top = HEADER_LENGTH;
+        keys = new Table(MIN_SLOTS);
+        entries = new Table(MIN_SLOTS);
+        keyCount = 0;
+        size = 0;
+
+        memory.putInt(0, MAGIC);
+        memory.putInt(4, VERSION);
+        writeHeader();
+    }
+
+    /**
+     * Gets the number of key/value pairs in the map, or Integer.MAX_VALUE if
+     * there are more than that
+     * 
+     * @return the number of key/value pairs
+     */
+    @Override
+    public int size() {
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public String toString() {
+        return MultiMapFormat.toString(this);
+    }
+
+    private V value(long record) {
+        return valueCodec.read(memory.slice(record + VALUE_BYTES, memory
+                .getInt(record + VALUE_LENGTH)));
+    }
+
+    @Override
+    public Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public boolean contains(Object o) {
+                return containsValue((V) o);
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                final RecordIterator records = new RecordIterator();
+                return new Iterator<V>() {
+                    @Override
+                    public boolean hasNext() {
+                        return records.hasNext();
+                    }
+
+                    @Override
+                    public V next() {
+                        return value(records.next());
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return OffHeapSetMultiMap.this.size();
+            }
+        };
+    }
+
+    private Set<V> values(long key) {
+        final Set<V> values = new HashSet<V>();
+        for(long record = memory.getLong(key + KEY_FIRST); record != 0;
+                record = memory.getLong(record + VALUE_NEXT)) {
+            values.add(value(record));
+        }
+
+        return values;
+    }
+
+    private void writeHeader() {
+        memory.putLong(HEADER_TOP, top);
+        memory.putLong(HEADER_KEY_COUNT, keyCount);
+        memory.putLong(HEADER_SIZE, size);
+        memory.putLong(HEADER_KEY_TABLE, keys.directory);
+        memory.putLong(HEADER_KEY_SLOTS, keys.slots());
+        memory.putLong(HEADER_ENTRY_TABLE, entries.directory);
+        memory.putLong(HEADER_ENTRY_SLOTS, entries.slots());
+    }
+}
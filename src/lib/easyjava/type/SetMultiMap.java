@@ -1,17 +1,30 @@
 package lib.easyjava.type;
 
-import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
 
 /**
  * A multimap back by a set, disallowing duplicate values under the same key
  * 
+ * The sets it hands out count their own changes, so the number of values is
+ * kept up to date rather than counted, and entries() and values() are live
+ * views rather than copies. It can also keep a count of every value to answer
+ * containsValue without looking through the whole map.
+ * 
+ * A key goes away once its last value is removed, however that happens.
+ * Adding to the key's set after that puts it back, unless the key has been
+ * given a new set in the meantime.
+ * 
  * @author Rob Rua (rrua@andrew.cmu.edu)
  * 
  * @param <K>
@@ -20,15 +33,217 @@ import java.util.Set;
  *            the type of the map's values
  */
 public class SetMultiMap<K, V> implements MultiMap<K, V> {
-    private final Map<K, Set<V>> map;
+    // Removing a key through the key set has to detach its values, as
+    // remove does
+    private class KeySet extends AbstractSet<K> {
+        @Override
+        public void clear() {
+            SetMultiMap.this.clear();
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return map.containsKey(key);
+        }
+
+        @Override
+        public Iterator<K> iterator() {
+            final Iterator<Entry<K, ValueSet>> entries = map.entrySet()
+                    .iterator();
+            return new Iterator<K>() {
+                private ValueSet last;
+
+                @Override
+                public boolean hasNext() {
+                    return entries.hasNext();
+                }
+
+                @Override
+                public K next() {
+                    final Entry<K, ValueSet> entry = entries.next();
+                    last = entry.getValue();
+                    return entry.getKey();
+                }
+
+                @Override
+                public void remove() {
+                    entries.remove();
+                    last.detach();
+                }
+            };
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            final ValueSet values = map.remove(key);
+            if(values == null) {
+                return false;
+            }
+
+            values.detach();
+            return true;
+        }
+
+        @Override
+        public int size() {
+            return map.size();
+        }
+    }
+
+    private class ValueSet extends AbstractSet<V> {
+        // Whether the set is still in the map, so its changes count
+        private boolean attached;
+        // Whether it was taken out of the map for being empty
+        private boolean emptied;
+        private final K key;
+        private final Set<V> set;
+
+        private ValueSet(K key) {
+            this.key = key;
+            attached = true;
+            set = new HashSet<V>();
+        }
+
+        @Override
+        public boolean add(V value) {
+            if(!set.add(value)) {
+                return false;
+            }
+
+            reattach();
+            if(attached) {
+                added(value);
+            }
+            return true;
+        }
+
+        @Override
+        public void clear() {
+            if(attached) {
+                for(final V value : set) {
+                    removed(value);
+                }
+            }
+            set.clear();
+            removeIfEmpty();
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return set.contains(o);
+        }
+
+        private void detach() {
+            for(final V value : set) {
+                removed(value);
+            }
+            attached = false;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            final Iterator<V> values = set.iterator();
+            return new Iterator<V>() {
+                private V last;
+
+                @Override
+                public boolean hasNext() {
+                    return values.hasNext();
+                }
+
+                @Override
+                public V next() {
+                    last = values.next();
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    values.remove();
+                    if(attached) {
+                        removed(last);
+                    }
+                    removeIfEmpty();
+                }
+            };
+        }
+
+        private void reattach() {
+            if(emptied && !map.containsKey(key)) {
+                map.put(key, this);
+                attached = true;
+            }
+            emptied = false;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if(!set.remove(o)) {
+                return false;
+            }
+
+            if(attached) {
+                removed(o);
+            }
+            removeIfEmpty();
+            return true;
+        }
+
+        private void removeIfEmpty() {
+            if(!attached || !set.isEmpty()) {
+                return;
+            }
+
+            // The map's iterators take the key out themselves first
+            if(map.get(key) == this) {
+                map.remove(key);
+            }
+            attached = false;
+            emptied = true;
+        }
+
+        @Override
+        public int size() {
+            return set.size();
+        }
+    }
+
+    private final Map<K, ValueSet> map;
+    private int size;
+    private final Map<V, Integer> valueCounts;
 
     public SetMultiMap() {
-        map = new HashMap<K, Set<V>>();
+        this(false);
+    }
+
+    /**
+     * @param indexValues
+     *            whether to keep a count of every value, so containsValue
+     *            doesn't have to look through the whole map
+     */
+    public SetMultiMap(boolean indexValues) {
+        map = new HashMap<K, ValueSet>();
+        valueCounts = indexValues ? new HashMap<V, Integer>() : null;
+    }
+
+    private void added(V value) {
+        size++;
+        if(valueCounts != null) {
+            final Integer count = valueCounts.get(value);
+            valueCounts.put(value, count == null ? 1 : count + 1);
+        }
     }
 
     @Override
     public void clear() {
+        for(final ValueSet values : map.values()) {
+            values.attached = false;
+        }
         map.clear();
+        size = 0;
+        if(valueCounts != null) {
+            valueCounts.clear();
+        }
     }
 
     @Override
@@ -38,8 +253,12 @@ public class SetMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public boolean containsValue(V value) {
-        for(final K key : map.keySet()) {
-            if(map.get(key).contains(value)) {
+        if(valueCounts != null) {
+            return valueCounts.containsKey(value);
+        }
+
+        for(final ValueSet values : map.values()) {
+            if(values.contains(value)) {
                 return true;
             }
         }
@@ -49,14 +268,7 @@ public class SetMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public Collection<Entry<K, V>> entries() {
-        final Collection<Entry<K, V>> entries = new HashSet<Entry<K, V>>();
-        for(final K key : map.keySet()) {
-            for(final V val : map.get(key)) {
-                entries.add(new AbstractMap.SimpleImmutableEntry<K, V>(key, val));
-            }
-        }
-
-        return entries;
+        return MultiMapViews.entries(this, map, true);
     }
 
     @Override
@@ -85,6 +297,16 @@ public class SetMultiMap<K, V> implements MultiMap<K, V> {
         return true;
     }
 
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(final Entry<K, ValueSet> entry : map.entrySet()) {
+            final K key = entry.getKey();
+            for(final V value : entry.getValue()) {
+                action.accept(key, value);
+            }
+        }
+    }
+
     @Override
     public Set<V> get(K key) {
         return map.get(key);
@@ -100,21 +322,22 @@ public class SetMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public boolean isEmpty() {
-        return map.isEmpty();
+        return size == 0;
     }
 
     @Override
     public Set<K> keySet() {
-        return map.keySet();
+        return new KeySet();
     }
 
     @Override
     public void put(K key, V value) {
-        if(!map.containsKey(key)) {
-            final HashSet<V> val = new HashSet<V>();
-            map.put(key, val);
+        ValueSet values = map.get(key);
+        if(values == null) {
+            values = new ValueSet(key);
+            map.put(key, values);
         }
-        map.get(key).add(value);
+        values.add(value);
     }
 
     @Override
@@ -126,51 +349,55 @@ public class SetMultiMap<K, V> implements MultiMap<K, V> {
 
     @Override
     public void putAll(MultiMap<? extends K, ? extends V> map) {
-        for(final Entry<? extends K, ? extends V> entry : map.entries()) {
+        // Copied first, since entries() is a live view and map may be this
+        final List<Entry<? extends K, ? extends V>> entries =
+                new ArrayList<Entry<? extends K, ? extends V>>(map.entries());
+        for(final Entry<? extends K, ? extends V> entry : entries) {
             put(entry.getKey(), entry.getValue());
         }
     }
 
     @Override
     public Set<V> remove(K key) {
-        return map.remove(key);
+        final ValueSet values = map.remove(key);
+        if(values != null) {
+            values.detach();
+        }
+
+        return values;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void removed(Object value) {
+        size--;
+        if(valueCounts != null) {
+            final Integer count = valueCounts.get(value);
+            if(count == 1) {
+                valueCounts.remove(value);
+            }
+            else {
+                valueCounts.put((V) value, count - 1);
+            }
+        }
     }
 
     @Override
     public int size() {
-        int count = 0;
-        for(final K key : map.keySet()) {
-            count += map.get(key).size();
-        }
+        return size;
+    }
 
-        return count;
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new MultiMapSpliterator<K, V>(map, size, Spliterator.DISTINCT);
     }
 
     @Override
     public String toString() {
-        String result = "{";
-        for(final K key : map.keySet()) {
-            result += "\n\t" + key.toString() + ": ";
-
-            final String vals = "";
-            for(final V val : map.get(key)) {
-                result += ", " + val.toString();
-            }
-
-            result += vals.substring(2);
-        }
-        result += "\n}";
-
-        return result;
+        return MultiMapFormat.toString(this);
     }
 
     @Override
     public Collection<V> values() {
-        final Collection<V> values = new LinkedList<V>();
-        for(final K key : map.keySet()) {
-            values.addAll(map.get(key));
-        }
-
-        return values;
+        return MultiMapViews.values(this, map, true);
     }
 }
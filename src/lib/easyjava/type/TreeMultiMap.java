@@ -0,0 +1,342 @@
+package lib.easyjava.type;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Spliterator;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * A NavigableMultiMap backed by a TreeMap, so finding the keys around a given
+ * one takes O(log n) time and a range of k keys takes O(log n + k) to walk.
+ * Each key's values are kept in a list, either in the order they were put in
+ * or, if the map was given a comparator for them, in sorted order, with equal
+ * values in the order they were put in.
+ * 
+ * The lists get() hands out are read-only views of the map's own lists, and
+ * entries() and values() are read-only live views, so the map always knows
+ * its size. The range views share their values with the map, so a view can
+ * be used like the map itself. Like TreeMap, it isn't safe to change from
+ * more than one thread at a time.
+ * 
+ * @author Rob Rua (rrua@andrew.cmu.edu)
+ * 
+ * @param <K>
+ *            the type of the map's keys
+ * @param <V>
+ *            the type of the map's values
+ */
+public class TreeMultiMap<K, V> implements NavigableMultiMap<K, V> {
+    private final NavigableMap<K, List<V>> map;
+    // The whole map, which keeps the size for all of its views
+    private final TreeMultiMap<K, V> root;
+    private int size;
+    private final Comparator<? super V> valueComparator;
+
+    /**
+     * Keeps the keys in their natural order and the values in the order
+     * they're put in
+     */
+    public TreeMultiMap() {
+        this(null);
+    }
+
+    /**
+     * Keeps the values in the order they're put in
+     * 
+     * @param keyComparator
+     *            the order for the keys, or null for their natural order
+     */
+    public TreeMultiMap(Comparator<? super K> keyComparator) {
+        this(keyComparator, null);
+    }
+
+    /**
+     * @param keyComparator
+     *            the order for the keys, or null for their natural order
+     * @param valueComparator
+     *            the order for each key's values, or null to keep them in the
+     *            order they're put in
+     */
+    public TreeMultiMap(Comparator<? super K> keyComparator,
+            Comparator<? super V> valueComparator) {
+        map = new TreeMap<K, List<V>>(keyComparator);
+        root = this;
+        this.valueComparator = valueComparator;
+    }
+
+    private TreeMultiMap(TreeMultiMap<K, V> root,
+            NavigableMap<K, List<V>> map) {
+        this.root = root;
+        this.map = map;
+        valueComparator = root.valueComparator;
+    }
+
+    @Override
+    public K ceilingKey(K key) {
+        return map.ceilingKey(key);
+    }
+
+    @Override
+    public void clear() {
+        root.size -= size();
+        map.clear();
+    }
+
+    @Override
+    public Comparator<? super K> comparator() {
+        return map.comparator();
+    }
+
+    @Override
+    public boolean containsKey(K key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(V value) {
+        for(final List<V> values : map.values()) {
+            if(values.contains(value)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    @Override
+    public NavigableMultiMap<K, V> descendingMap() {
+        return new TreeMultiMap<K, V>(root, map.descendingMap());
+    }
+
+    @Override
+    public Collection<Entry<K, V>> entries() {
+        return MultiMapViews.entries(this, map, false);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(obj == null) {
+            return false;
+        }
+        if(!(obj instanceof TreeMultiMap)) {
+            return false;
+        }
+
+        @SuppressWarnings("rawtypes")
+        final TreeMultiMap other = (TreeMultiMap) obj;
+
+        if(!map.equals(other.map)) {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public K firstKey() {
+        return map.firstKey();
+    }
+
+    @Override
+    public K floorKey(K key) {
+        return map.floorKey(key);
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        for(final Entry<K, List<V>> entry : map.entrySet()) {
+            final K key = entry.getKey();
+            for(final V value : entry.getValue()) {
+                action.accept(key, value);
+            }
+        }
+    }
+
+    /**
+     * Gets a read-only view of the values stored for a key, in order
+     * 
+     * @param key
+     *            the key to get values for
+     * @return the key's values or null if there are none
+     */
+    @Override
+    public List<V> get(K key) {
+        final List<V> values = map.get(key);
+        return values == null ? null : Collections.unmodifiableList(values);
+    }
+
+    @Override
+    public int hashCode() {
+        return map.hashCode();
+    }
+
+    @Override
+    public NavigableMultiMap<K, V> headMap(K toKey, boolean inclusive) {
+        return new TreeMultiMap<K, V>(root, map.headMap(toKey, inclusive));
+    }
+
+    @Override
+    public K higherKey(K key) {
+        return map.higherKey(key);
+    }
+
+    private void insert(List<V> values, V value) {
+        if(valueComparator == null) {
+            values.add(value);
+            return;
+        }
+
+        // Binary search for the end of any run of equal values, so they stay
+        // in the order they were put in
+        int low = 0;
+        int high = values.size();
+        while(low < high) {
+            final int middle = low + high >>> 1;
+            if(valueComparator.compare(values.get(middle), value) <= 0) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        values.add(low, value);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return map.isEmpty();
+    }
+
+    @Override
+    public NavigableSet<K> keySet() {
+        return Collections.unmodifiableNavigableSet(map.navigableKeySet());
+    }
+
+    @Override
+    public K lastKey() {
+        return map.lastKey();
+    }
+
+    @Override
+    public K lowerKey(K key) {
+        return map.lowerKey(key);
+    }
+
+    @Override
+    public void put(K key, V value) {
+        List<V> values = map.get(key);
+        if(values == null) {
+            values = new ArrayList<V>(1);
+            map.put(key, values);
+        }
+        insert(values, value);
+        root.size++;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void putAll(K key, Collection<? extends V> values) {
+        // Copied first, since values may be a view of the list being added to
+        final Object[] added = values.toArray();
+        if(added.length == 0) {
+            return;
+        }
+
+        List<V> list = map.get(key);
+        if(list == null) {
+            list = new ArrayList<V>(added.length);
+            map.put(key, list);
+        }
+        if(valueComparator == null) {
+            list.addAll((List<V>) Arrays.asList(added));
+        }
+        else {
+            for(final Object value : added) {
+                insert(list, (V) value);
+            }
+        }
+        root.size += added.length;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> map) {
+        for(final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void putAll(MultiMap<? extends K, ? extends V> map) {
+        // Copied first, since entries() is a live view and map may be this
+        final List<Entry<? extends K, ? extends V>> entries =
+                new ArrayList<Entry<? extends K, ? extends V>>(map.entries());
+        for(final Entry<? extends K, ? extends V> entry : entries) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public List<V> remove(K key) {
+        final List<V> values = map.remove(key);
+        if(values != null) {
+            root.size -= values.size();
+        }
+
+        return values;
+    }
+
+    /**
+     * Gets the number of values in the map. For a range view this counts
+     * the values of every key in the range.
+     */
+    @Override
+    public int size() {
+        if(root == this) {
+            return size;
+        }
+
+        int count = 0;
+        for(final List<V> values : map.values()) {
+            count += values.size();
+        }
+        return count;
+    }
+
+    @Override
+    public Spliterator<Entry<K, V>> spliterator() {
+        return new MultiMapSpliterator<K, V>(map, size(), Spliterator.ORDERED);
+    }
+
+    @Override
+    public NavigableMultiMap<K, V> subMap(K fromKey, boolean fromInclusive,
+            K toKey, boolean toInclusive) {
+        return new TreeMultiMap<K, V>(root, map.subMap(fromKey, fromInclusive,
+                toKey, toInclusive));
+    }
+
+    @Override
+    public NavigableMultiMap<K, V> tailMap(K fromKey, boolean inclusive) {
+        return new TreeMultiMap<K, V>(root, map.tailMap(fromKey, inclusive));
+    }
+
+    @Override
+    public String toString() {
+        return MultiMapFormat.toString(this);
+    }
+
+    @Override
+    public Collection<V> values() {
+        return MultiMapViews.values(this, map, false);
+    }
+}